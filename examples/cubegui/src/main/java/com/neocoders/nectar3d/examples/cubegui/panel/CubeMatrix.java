@@ -176,20 +176,21 @@ class CubeMatrix implements SliceExtractionContext {
             extractionStrategy = new ZMaxSliceExtractionStrategy(this, slice);
         }
         state = STATE_EXTRACTING_SLICE;
-        SceneElement.getSceneMutex().lock(); // get mutex on scene graph
+        SceneElement.getSceneLock().lockWrite(); // get write lock on scene graph
         try {
             extractionStrategy.extract();
         } catch (SceneException se) {
             se.printStackTrace();
+        } finally {
+            SceneElement.getSceneLock().unlockWrite();
         }
-        SceneElement.getSceneMutex().unlock();
     }
 
     public void restoreSlice() {
         if (state != CubeMatrix.STATE_SLICE_EXTRACTED) {
             return;
         }
-        SceneElement.getSceneMutex().lock(); // get mutex on scene graph
+        SceneElement.getSceneLock().lockWrite(); // get write lock on scene graph
         state = STATE_RESTORING_SLICE;
         try {
             extractionStrategy.restore();
@@ -197,7 +198,9 @@ class CubeMatrix implements SliceExtractionContext {
         catch (SceneException se) {
             se.printStackTrace();
         }
-        SceneElement.getSceneMutex().unlock();
+        finally {
+            SceneElement.getSceneLock().unlockWrite();
+        }
     }
 
     public TransformGroup getTransformGroup(CubeSelector cubeSelector) {
@@ -254,9 +257,12 @@ class CubeMatrix implements SliceExtractionContext {
 /* Destroy any temporary scene graph elements used
                         * for slice extraction/restoration
                        */
-                            SceneElement.getSceneMutex().lock();
-                            extractionStrategy.cleanUp();
-                            SceneElement.getSceneMutex().unlock();
+                            SceneElement.getSceneLock().lockWrite();
+                            try {
+                                extractionStrategy.cleanUp();
+                            } finally {
+                                SceneElement.getSceneLock().unlockWrite();
+                            }
                             //   extractionStrategy = null;
                         default:
                             break;
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+
+package com.neocoders.nectar3d.common;
+
+/**
+ * Axis-aligned bounding box with an enclosing sphere. Bounds may be empty,
+ * enclosing nothing, or infinite, for content whose extent is not known.
+ */
+public class Bounds3 {
+	/** Create empty bounds */
+	public Bounds3() {
+		setEmpty();
+	}
+
+	public void setEmpty() {
+		xmin = ymin = zmin = Double.MAX_VALUE;
+		xmax = ymax = zmax = -Double.MAX_VALUE;
+		cx = cy = cz = 0.0;
+		radius = -1.0;
+		infinite = false;
+	}
+
+	public void setInfinite() {
+		xmin = ymin = zmin = -Double.MAX_VALUE;
+		xmax = ymax = zmax = Double.MAX_VALUE;
+		cx = cy = cz = 0.0;
+		radius = Double.MAX_VALUE;
+		infinite = true;
+	}
+
+	public boolean isEmpty() {
+		return (xmin > xmax);
+	}
+
+	public boolean isInfinite() {
+		return infinite;
+	}
+
+	/** Grow the box to include a point */
+	public void include(double x, double y, double z) {
+		if (infinite) {
+			return;
+		}
+		if (x < xmin) {
+			xmin = x;
+		}
+		if (x > xmax) {
+			xmax = x;
+		}
+		if (y < ymin) {
+			ymin = y;
+		}
+		if (y > ymax) {
+			ymax = y;
+		}
+		if (z < zmin) {
+			zmin = z;
+		}
+		if (z > zmax) {
+			zmax = z;
+		}
+	}
+
+	/** Grow the box to include another box */
+	public void include(Bounds3 b) {
+		if (b.infinite) {
+			setInfinite();
+		} else if (!b.isEmpty()) {
+			include(b.xmin, b.ymin, b.zmin);
+			include(b.xmax, b.ymax, b.zmax);
+		}
+	}
+
+	/**
+	 * Grow the box to include another box after it is transformed by a
+	 * matrix, which must be affine
+	 */
+	public void include(Bounds3 b, Matrix m) {
+		if (b.infinite) {
+			setInfinite();
+			return;
+		}
+		if (b.isEmpty()) {
+			return;
+		}
+		for (int i = 0; i < 8; i++) {
+			double x = ((i & 1) == 0) ? b.xmin : b.xmax;
+			double y = ((i & 2) == 0) ? b.ymin : b.ymax;
+			double z = ((i & 4) == 0) ? b.zmin : b.zmax;
+			include((m.get(0, 0) * x) + (m.get(1, 0) * y) + (m.get(2, 0) * z)
+					+ m.get(3, 0), (m.get(0, 1) * x) + (m.get(1, 1) * y)
+					+ (m.get(2, 1) * z) + m.get(3, 1), (m.get(0, 2) * x)
+					+ (m.get(1, 2) * y) + (m.get(2, 2) * z) + m.get(3, 2));
+		}
+	}
+
+	/**
+	 * Fit the sphere around the box, which is to be done once the box is
+	 * complete
+	 */
+	public void fitSphere() {
+		if (infinite || isEmpty()) {
+			return;
+		}
+		cx = (xmin + xmax) * 0.5;
+		cy = (ymin + ymax) * 0.5;
+		cz = (zmin + zmax) * 0.5;
+		double dx = xmax - cx;
+		double dy = ymax - cy;
+		double dz = zmax - cz;
+		radius = Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+	}
+
+	public String toString() {
+		if (infinite) {
+			return "Bounds3[infinite]";
+		}
+		if (isEmpty()) {
+			return "Bounds3[empty]";
+		}
+		return "Bounds3[" + xmin + "," + ymin + "," + zmin + " - " + xmax
+				+ "," + ymax + "," + zmax + "]";
+	}
+
+	public double xmin;
+
+	public double ymin;
+
+	public double zmin;
+
+	public double xmax;
+
+	public double ymax;
+
+	public double zmax;
+
+	/*
+	 * Sphere enclosing the box, with a negative radius while empty
+	 */
+
+	public double cx;
+
+	public double cy;
+
+	public double cz;
+
+	public double radius;
+
+	private boolean infinite;
+}
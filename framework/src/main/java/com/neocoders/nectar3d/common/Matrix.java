@@ -22,31 +22,165 @@
  */
 package com.neocoders.nectar3d.common;
 
+/**
+ * A 4x4 matrix, stored as a flat array of sixteen elements in row-major order.
+ * Points are transformed as row vectors, so the last row holds translation.
+ * <p>
+ * Operations modify the matrix in place, and there are transforms that write
+ * into existing points and over packed coordinate arrays, so that matrices can
+ * be used in rendering loops without allocating.
+ */
 public class Matrix {
-	private double[][] e;
+	private final double[] e;
 
 	public Matrix() {
-		e = new double[4][4];
+		e = new double[16];
 		identity();
 	}
 
+	public Matrix(Matrix m) {
+		e = new double[16];
+		set(m);
+	}
+
 	public void identity() {
-		for (int i = 0; i < 4; i++) {
-			for (int j = 0; j < 4; j++) {
-				if (i == j) {
-					e[i][j] = 1.0;
-				} else {
-					e[i][j] = 0.0;
-				}
-			}
+		for (int i = 0; i < 16; i++) {
+			e[i] = 0.0;
+		}
+		e[0] = 1.0;
+		e[5] = 1.0;
+		e[10] = 1.0;
+		e[15] = 1.0;
+	}
+
+	public void set(Matrix m) {
+		System.arraycopy(m.e, 0, e, 0, 16);
+	}
+
+	/**
+	 * Set this matrix from sixteen consecutive elements of an array, in
+	 * row-major order
+	 */
+	public void set(double[] a, int offset) {
+		System.arraycopy(a, offset, e, 0, 16);
+	}
+
+	/**
+	 * Copy this matrix into sixteen consecutive elements of an array, in
+	 * row-major order
+	 */
+	public void copyTo(double[] a, int offset) {
+		System.arraycopy(e, 0, a, offset, 16);
+	}
+
+	/**
+	 * Get an element
+	 * 
+	 * @param row
+	 *            row index, 0..3
+	 * @param col
+	 *            column index, 0..3
+	 */
+	public double get(int row, int col) {
+		return e[(row << 2) + col];
+	}
+
+	/**
+	 * Set this matrix to the product a x b. Points are transformed as row
+	 * vectors, so transforming by the product is the same as transforming by
+	 * a and then by b. Either a or b may be this matrix.
+	 */
+	public void multiply(Matrix a, Matrix b) {
+		double[] ae = a.e;
+		double[] be = b.e;
+		double b00 = be[0], b01 = be[1], b02 = be[2], b03 = be[3];
+		double b10 = be[4], b11 = be[5], b12 = be[6], b13 = be[7];
+		double b20 = be[8], b21 = be[9], b22 = be[10], b23 = be[11];
+		double b30 = be[12], b31 = be[13], b32 = be[14], b33 = be[15];
+		for (int i = 0; i < 16; i += 4) {
+			double a0 = ae[i];
+			double a1 = ae[i + 1];
+			double a2 = ae[i + 2];
+			double a3 = ae[i + 3];
+			e[i] = a0 * b00 + a1 * b10 + a2 * b20 + a3 * b30;
+			e[i + 1] = a0 * b01 + a1 * b11 + a2 * b21 + a3 * b31;
+			e[i + 2] = a0 * b02 + a1 * b12 + a2 * b22 + a3 * b32;
+			e[i + 3] = a0 * b03 + a1 * b13 + a2 * b23 + a3 * b33;
 		}
 	}
 
+	/**
+	 * Post-multiply this matrix by another, so that transforming by this
+	 * matrix is then the same as transforming by it before and then by m
+	 */
+	public void multiply(Matrix m) {
+		multiply(this, m);
+	}
+
+	/**
+	 * Set this matrix to the inverse of another, which may be this matrix
+	 * 
+	 * @return false if m is singular, in which case this matrix is unchanged
+	 */
+	public boolean invert(Matrix m) {
+		double[] a = m.e;
+		double a00 = a[0], a01 = a[1], a02 = a[2], a03 = a[3];
+		double a10 = a[4], a11 = a[5], a12 = a[6], a13 = a[7];
+		double a20 = a[8], a21 = a[9], a22 = a[10], a23 = a[11];
+		double a30 = a[12], a31 = a[13], a32 = a[14], a33 = a[15];
+
+		double b00 = a00 * a11 - a01 * a10;
+		double b01 = a00 * a12 - a02 * a10;
+		double b02 = a00 * a13 - a03 * a10;
+		double b03 = a01 * a12 - a02 * a11;
+		double b04 = a01 * a13 - a03 * a11;
+		double b05 = a02 * a13 - a03 * a12;
+		double b06 = a20 * a31 - a21 * a30;
+		double b07 = a20 * a32 - a22 * a30;
+		double b08 = a20 * a33 - a23 * a30;
+		double b09 = a21 * a32 - a22 * a31;
+		double b10 = a21 * a33 - a23 * a31;
+		double b11 = a22 * a33 - a23 * a32;
+
+		double det = b00 * b11 - b01 * b10 + b02 * b09 + b03 * b08 - b04 * b07
+				+ b05 * b06;
+		if (det == 0.0 || Double.isNaN(det)) {
+			return false;
+		}
+		double d = 1.0 / det;
+		e[0] = (a11 * b11 - a12 * b10 + a13 * b09) * d;
+		e[1] = (a02 * b10 - a01 * b11 - a03 * b09) * d;
+		e[2] = (a31 * b05 - a32 * b04 + a33 * b03) * d;
+		e[3] = (a22 * b04 - a21 * b05 - a23 * b03) * d;
+		e[4] = (a12 * b08 - a10 * b11 - a13 * b07) * d;
+		e[5] = (a00 * b11 - a02 * b08 + a03 * b07) * d;
+		e[6] = (a32 * b02 - a30 * b05 - a33 * b01) * d;
+		e[7] = (a20 * b05 - a22 * b02 + a23 * b01) * d;
+		e[8] = (a10 * b10 - a11 * b08 + a13 * b06) * d;
+		e[9] = (a01 * b08 - a00 * b10 - a03 * b06) * d;
+		e[10] = (a30 * b04 - a31 * b02 + a33 * b00) * d;
+		e[11] = (a21 * b02 - a20 * b04 - a23 * b00) * d;
+		e[12] = (a11 * b07 - a10 * b09 - a12 * b06) * d;
+		e[13] = (a00 * b09 - a01 * b07 + a02 * b06) * d;
+		e[14] = (a31 * b01 - a30 * b03 - a32 * b00) * d;
+		e[15] = (a20 * b03 - a21 * b01 + a22 * b00) * d;
+		return true;
+	}
+
+	/**
+	 * Invert this matrix in place
+	 * 
+	 * @return false if this matrix is singular, in which case it is unchanged
+	 */
+	public boolean invert() {
+		return invert(this);
+	}
+
 	public String toString() {
 		StringBuffer sb = new StringBuffer("\n");
 		for (int i = 0; i < 4; i++) {
 			for (int j = 0; j < 4; j++) {
-				sb.append(" " + e[i][j]);
+				sb.append(" " + e[(i << 2) + j]);
 			}
 			sb.append("\n");
 		}
@@ -60,42 +194,42 @@ public class Matrix {
 		Vector3 upCrossn = Vector3.cross(up, n);
 		Vector3 u = Vector3.divide(upCrossn, Vector3.length(upCrossn));
 		Vector3 v = Vector3.cross(n, u);
-		e[0][0] = u.x; // u
-		e[0][1] = u.y;
-		e[0][2] = u.z;
-		e[0][3] = 0.0;
-		e[1][0] = v.x; // v
-		e[1][1] = v.y;
-		e[1][2] = v.z;
-		e[1][3] = 0.0;
-		e[2][0] = n.x; // n
-		e[2][1] = n.y;
-		e[2][2] = n.z;
-		e[2][3] = 0.0;
-		e[3][0] = 0.0;
-		e[3][1] = 0.0;
-		e[3][2] = 0.0;
-		e[3][3] = 1.0;
+		e[0] = u.x; // u
+		e[1] = u.y;
+		e[2] = u.z;
+		e[3] = 0.0;
+		e[4] = v.x; // v
+		e[5] = v.y;
+		e[6] = v.z;
+		e[7] = 0.0;
+		e[8] = n.x; // n
+		e[9] = n.y;
+		e[10] = n.z;
+		e[11] = 0.0;
+		e[12] = 0.0;
+		e[13] = 0.0;
+		e[14] = 0.0;
+		e[15] = 1.0;
 		translate(-eye.x, -eye.y, -eye.z);
 	}
 
 	public void perspective(Volume3 v) {
-		e[0][0] = (2.0 * v.zmin) / (v.xmax - v.ymin);
-		e[0][1] = 0.0;
-		e[0][2] = (v.xmax + v.xmin) / (v.xmax - v.xmin);
-		e[0][3] = 0.0;
-		e[1][0] = 0.0;
-		e[1][1] = (2.0 * v.zmin) / (v.ymax - v.ymin);
-		e[1][2] = (v.ymax + v.ymin) / (v.ymax - v.ymin);
-		e[1][3] = 0.0;
-		e[2][0] = 0.0;
-		e[2][1] = 0.0;
-		e[2][2] = -((v.zmax + v.zmin) / (v.zmax - v.zmin));
-		e[2][3] = (-2.0 * v.zmax * v.zmin) / (v.zmax - v.zmin);
-		e[3][0] = 0.0;
-		e[3][1] = 0.0;
-		e[3][2] = -1.0;
-		e[3][3] = 0.0;
+		e[0] = (2.0 * v.zmin) / (v.xmax - v.ymin);
+		e[1] = 0.0;
+		e[2] = (v.xmax + v.xmin) / (v.xmax - v.xmin);
+		e[3] = 0.0;
+		e[4] = 0.0;
+		e[5] = (2.0 * v.zmin) / (v.ymax - v.ymin);
+		e[6] = (v.ymax + v.ymin) / (v.ymax - v.ymin);
+		e[7] = 0.0;
+		e[8] = 0.0;
+		e[9] = 0.0;
+		e[10] = -((v.zmax + v.zmin) / (v.zmax - v.zmin));
+		e[11] = (-2.0 * v.zmax * v.zmin) / (v.zmax - v.zmin);
+		e[12] = 0.0;
+		e[13] = 0.0;
+		e[14] = -1.0;
+		e[15] = 0.0;
 	}
 
 	public void rotateX(double a) {
@@ -103,10 +237,10 @@ public class Matrix {
 		a = Math.toRadians(wrapAngle(a));
 		double c = Math.cos(a);
 		double s = Math.sin(a);
-		for (int i = 0; i < 4; i++) {
-			t = e[i][1];
-			e[i][1] = t * c - e[i][2] * s;
-			e[i][2] = t * s + e[i][2] * c;
+		for (int i = 0; i < 16; i += 4) {
+			t = e[i + 1];
+			e[i + 1] = t * c - e[i + 2] * s;
+			e[i + 2] = t * s + e[i + 2] * c;
 		}
 	}
 
@@ -115,10 +249,10 @@ public class Matrix {
 		a = Math.toRadians(wrapAngle(a));
 		double c = Math.cos(a);
 		double s = Math.sin(a);
-		for (int i = 0; i < 4; i++) {
-			t = e[i][0];
-			e[i][0] = t * c + e[i][2] * s;
-			e[i][2] = e[i][2] * c - t * s;
+		for (int i = 0; i < 16; i += 4) {
+			t = e[i];
+			e[i] = t * c + e[i + 2] * s;
+			e[i + 2] = e[i + 2] * c - t * s;
 		}
 	}
 
@@ -127,10 +261,10 @@ public class Matrix {
 		a = Math.toRadians(wrapAngle(a));
 		double c = Math.cos(a);
 		double s = Math.sin(a);
-		for (int i = 0; i < 4; i++) {
-			t = e[i][0];
-			e[i][0] = t * c - e[i][1] * s;
-			e[i][1] = t * s + e[i][1] * c;
+		for (int i = 0; i < 16; i += 4) {
+			t = e[i];
+			e[i] = t * c - e[i + 1] * s;
+			e[i + 1] = t * s + e[i + 1] * c;
 		}
 	}
 
@@ -140,40 +274,93 @@ public class Matrix {
 	}
 
 	public void scale(double sx, double sy, double sz) {
+		for (int i = 0; i < 16; i += 4) {
+			e[i] *= sx;
+			e[i + 1] *= sy;
+			e[i + 2] *= sz;
+		}
+	}
+
+	/**
+	 * Pre-multiply this matrix by a scale, so that points are scaled along
+	 * each axis before being transformed by it
+	 */
+	public void preScale(double sx, double sy, double sz) {
 		for (int i = 0; i < 4; i++) {
-			e[i][0] *= sx;
-			e[i][1] *= sy;
-			e[i][2] *= sz;
+			e[i] *= sx;
+			e[i + 4] *= sy;
+			e[i + 8] *= sz;
 		}
 	}
 
 	public void translate(double tx, double ty, double tz) {
-		for (int i = 0; i < 4; i++) {
-			e[i][0] += e[i][3] * tx;
-			e[i][1] += e[i][3] * ty;
-			e[i][2] += e[i][3] * tz;
+		for (int i = 0; i < 16; i += 4) {
+			e[i] += e[i + 3] * tx;
+			e[i + 1] += e[i + 3] * ty;
+			e[i + 2] += e[i + 3] * tz;
 		}
 	}
 
 	public void perspective(double d) {
 		double f = 1.0 / d;
-		for (int i = 0; i < 4; i++) {
-			e[i][3] += e[i][2] * f;
-			// e[i] [2] = 0.0;
+		for (int i = 0; i < 16; i += 4) {
+			e[i + 3] += e[i + 2] * f;
 		}
 	}
 
 	public Point3 transform(Point3 p) {
-		return new Point3((e[0][0] * p.x) + (e[1][0] * p.y) + (e[2][0] * p.z)
-				+ e[3][0], (e[0][1] * p.x) + (e[1][1] * p.y) + (e[2][1] * p.z)
-				+ e[3][1], (e[0][2] * p.x) + (e[1][2] * p.y) + (e[2][2] * p.z)
-				+ e[3][2], (e[0][3] * p.x) + (e[1][3] * p.y) + (e[2][3] * p.z)
-				+ e[3][3]);
+		Point3 result = new Point3();
+		transform(p, result);
+		return result;
+	}
+
+	/**
+	 * Transform a point into another without allocating. The source and
+	 * destination may be the same point.
+	 */
+	public void transform(Point3 src, Point3 dst) {
+		double x = src.x;
+		double y = src.y;
+		double z = src.z;
+		dst.x = (e[0] * x) + (e[4] * y) + (e[8] * z) + e[12];
+		dst.y = (e[1] * x) + (e[5] * y) + (e[9] * z) + e[13];
+		dst.z = (e[2] * x) + (e[6] * y) + (e[10] * z) + e[14];
+		dst.w = (e[3] * x) + (e[7] * y) + (e[11] * z) + e[15];
+	}
+
+	/**
+	 * Transform packed points. Each source point is three consecutive
+	 * elements x, y, z, taken to have a w of 1, and each destination point is
+	 * four consecutive elements x, y, z, w.
+	 * 
+	 * @param src
+	 *            source coordinates, at least 3 x count long
+	 * @param dst
+	 *            destination coordinates, at least 4 x count long
+	 * @param count
+	 *            number of points
+	 */
+	public void transform(double[] src, double[] dst, int count) {
+		double e0 = e[0], e1 = e[1], e2 = e[2], e3 = e[3];
+		double e4 = e[4], e5 = e[5], e6 = e[6], e7 = e[7];
+		double e8 = e[8], e9 = e[9], e10 = e[10], e11 = e[11];
+		double e12 = e[12], e13 = e[13], e14 = e[14], e15 = e[15];
+		int s = 0;
+		int d = 0;
+		for (int i = 0; i < count; i++, s += 3, d += 4) {
+			double x = src[s];
+			double y = src[s + 1];
+			double z = src[s + 2];
+			dst[d] = (e0 * x) + (e4 * y) + (e8 * z) + e12;
+			dst[d + 1] = (e1 * x) + (e5 * y) + (e9 * z) + e13;
+			dst[d + 2] = (e2 * x) + (e6 * y) + (e10 * z) + e14;
+			dst[d + 3] = (e3 * x) + (e7 * y) + (e11 * z) + e15;
+		}
 	}
 
 	public Vector3 transform(Vector3 v) {
-		return new Vector3((e[0][0] * v.x) + (e[1][0] * v.y) + (e[2][0] * v.z),
-				(e[0][1] * v.x) + (e[1][1] * v.y) + (e[2][1] * v.z),
-				(e[0][2] * v.x) + (e[1][2] * v.y) + (e[2][2] * v.z));
+		return new Vector3((e[0] * v.x) + (e[4] * v.y) + (e[8] * v.z),
+				(e[1] * v.x) + (e[5] * v.y) + (e[9] * v.z), (e[2] * v.x)
+						+ (e[6] * v.y) + (e[10] * v.z));
 	}
 }
@@ -52,6 +52,13 @@ public class Point3 {
 		this.w = w;
 	}
 
+	public void set(double x, double y, double z, double w) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.w = w;
+	}
+
 	public double x;
 
 	public double y;
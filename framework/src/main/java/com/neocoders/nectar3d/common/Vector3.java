@@ -50,6 +50,15 @@ public class Vector3 {
 				* b.y - a.y * b.x);
 	}
 
+	/**
+	 * Cross product of a and b, written into result without allocating. The
+	 * result may be a or b.
+	 */
+	public static void cross(Vector3 a, Vector3 b, Vector3 result) {
+		result.set(a.y * b.z - a.z * b.y, a.z * b.x - a.x * b.z, a.x * b.y
+				- a.y * b.x);
+	}
+
 	public static double length(Vector3 a) {
 		return Math.sqrt((a.x * a.x) + (a.y * a.y) + (a.z * a.z));
 	}
@@ -70,6 +79,12 @@ public class Vector3 {
 		return (a.x * b.x) + (a.y * b.y) + (a.z * b.z);
 	}
 
+	public void set(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
 	public double x;
 
 	public double y;
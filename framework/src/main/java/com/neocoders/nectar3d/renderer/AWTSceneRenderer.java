@@ -25,6 +25,7 @@ package com.neocoders.nectar3d.renderer;
 
 import java.awt.event.MouseAdapter;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionListener;
 import java.awt.Graphics;
@@ -50,15 +51,46 @@ public class AWTSceneRenderer extends DoubleBufferedPanel implements
 		});
 		scene = null;
 		listener = null;
+		softwareRasterizer = null;
+		renderThread = null;
+		frameScheduler = new FrameScheduler(this);
 		state = STATE_STOPPED;
 	}
 
+	public void addNotify() {
+		super.addNotify();
+		frameScheduler.start();
+		if (renderThread != null) {
+			renderThread.start();
+		}
+	}
+
+	public void removeNotify() {
+		frameScheduler.stop();
+		if (renderThread != null) {
+			renderThread.stop();
+		}
+		super.removeNotify();
+	}
+
+	/**
+	 * Get the scheduler that decides when frames are rendered, through which
+	 * the target frame rate may be set and frames requested
+	 */
+	public FrameScheduler getFrameScheduler() {
+		return frameScheduler;
+	}
+
 	public void setScene(SceneElement scene) {
 
 		timeLastRefreshed = System.currentTimeMillis();
 		this.scene = scene;
 		state = STATE_RENDERING;
-		repaint();
+		if (renderThread != null) {
+			renderThread.setScene(scene);
+		}
+		frameScheduler.setScene(scene);
+		frameScheduler.requestFrame();
 	}
 
 	public void setParams(SceneRendererParams params) {
@@ -66,15 +98,19 @@ public class AWTSceneRenderer extends DoubleBufferedPanel implements
 		this.rendererParams = params;
 		this.setBackground(rendererParams.getBackgroundColor());
 		renderer.setParams(params);
+		if (renderThread != null) {
+			renderThread.setParams(params);
+		}
 		switch (state) {
 		case STATE_STOPPED:
 			break;
 		case STATE_RENDERING:
-			repaint();
+			frameScheduler.requestFrame();
 			break;
 		case STATE_HIGHLIGHTING:
 			state = STATE_RENDERING;
-			repaint();
+			frameScheduler.setPaused(false);
+			frameScheduler.requestFrame();
 			break;
 		}
 	}
@@ -83,28 +119,131 @@ public class AWTSceneRenderer extends DoubleBufferedPanel implements
 		if (state != STATE_RENDERING && state != STATE_HIGHLIGHTING) {
 			return;
 		}
-		renderer.highlight(selectors);
+		Rectangle dirty = (renderThread != null) ? renderThread
+				.highlight(selectors) : renderer.highlight(selectors);
 		state = STATE_HIGHLIGHTING;
-		repaint();
+		frameScheduler.setPaused(true); // scene is frozen while highlighting
+		repaintDirty(dirty);
 	}
 
 	public void unHighlight() {
 		if (state != STATE_HIGHLIGHTING) {
 			return;
 		}
-		renderer.unHighlight();
+		Rectangle dirty = (renderThread != null) ? renderThread
+				.highlight(null) : renderer.unHighlight();
 		state = STATE_RENDERING;
-		repaint();
+		frameScheduler.setPaused(false);
+		if (frameScheduler.isIdle()) {
+			repaintDirty(dirty); // nothing else to draw
+		} else {
+			frameScheduler.requestFrame();
+		}
+	}
+
+	/**
+	 * Repaint the part of the component that highlighting has changed
+	 */
+	private void repaintDirty(Rectangle dirty) {
+		if (dirty != null) {
+			repaint(dirty.x, dirty.y, dirty.width, dirty.height);
+		}
+	}
+
+	/**
+	 * Specify if scenes are to be scan-converted by a SoftwareRasterizer
+	 * straight into an int[] raster, which is then blitted, rather than drawn
+	 * through this component's Graphics
+	 * 
+	 * @param enabled
+	 *            true to use software rasterization else false
+	 */
+	public void setSoftwareRendering(boolean enabled) {
+		softwareRasterizer = enabled ? new SoftwareRasterizer(getWidth(),
+				getHeight()) : null;
+		frameScheduler.requestFrame();
+	}
+
+	/**
+	 * Specify if frames are to be rendered on a thread of their own, leaving
+	 * the event dispatch thread to only blit the last completed frame and
+	 * pick from it. Frames rendered this way are always scan-converted by a
+	 * SoftwareRasterizer, and errors are reported on the rendering thread.
+	 * 
+	 * @param enabled
+	 *            true to render on a thread of its own else false
+	 */
+	public void setPipelined(boolean enabled) {
+		if (enabled == (renderThread != null)) {
+			return;
+		}
+		if (state == STATE_HIGHLIGHTING) {
+			state = STATE_RENDERING; // highlighting is not carried over
+			frameScheduler.setPaused(false);
+		}
+		if (enabled) {
+			final RenderThread thread = new RenderThread(this, frameScheduler,
+					rendererParams, new ErrorHandler() {
+						public void handleError(String message) {
+							fire(new SceneRendererEvent(
+									SceneRendererEvent.ERROR, message));
+						}
+					});
+			thread.setScene(scene);
+			if (isDisplayable()) {
+				thread.start();
+			}
+			frameScheduler.setFrameTask(new Runnable() {
+				public void run() {
+					thread.requestFrame();
+				}
+			});
+			renderThread = thread;
+		} else {
+			frameScheduler.setFrameTask(null);
+			renderThread.stop();
+			renderThread = null;
+		}
+		frameScheduler.requestFrame();
 	}
 
 	public void paintBuffer(Graphics g) {
+		if (renderThread != null) {
+			if (state != STATE_STOPPED) {
+				renderThread.paint(g);
+			}
+			return;
+		}
+		frameScheduler.frameStarted();
+		Rectangle clip = g.getClipBounds();
+		if (softwareRasterizer != null) {
+			softwareRasterizer.setSize(getWidth(), getHeight());
+			if (clip != null) {
+				softwareRasterizer.setClip(clip.x, clip.y, clip.width,
+						clip.height);
+			} else {
+				softwareRasterizer.resetClip();
+			}
+			softwareRasterizer.clear(rendererParams.getBackgroundColor()
+					.getRGB());
+		}
 		if (state == STATE_HIGHLIGHTING) {
-			renderer.reRender(g);
+			if (softwareRasterizer != null) {
+				renderer.reRender(softwareRasterizer, clip);
+			} else {
+				renderer.reRender(g);
+			}
 		} else if (state == STATE_RENDERING) {
 			long timeNow = System.currentTimeMillis() - timeLastRefreshed;
 			rendererParams.setTimeElapsed(timeNow);
-			renderer.render(scene, g);
-			this.repaint();
+			if (softwareRasterizer != null) {
+				renderer.render(scene, softwareRasterizer);
+			} else {
+				renderer.render(scene, g);
+			}
+		}
+		if (softwareRasterizer != null) {
+			g.drawImage(softwareRasterizer.getImage(), 0, 0, null);
 		}
 	}
 
@@ -135,13 +274,21 @@ public class AWTSceneRenderer extends DoubleBufferedPanel implements
 
 	private void handleMousePressed(Point pos) {
 		Point2 sc = new Point2(pos.x, pos.y);
-		PickInfo id = renderer.pick(sc);
+		PickInfo id = pick(sc);
 		if (id != null) {
 			mousePressedSelector = id.getSelector();
 		}
 		fire(new SceneRendererEvent(SceneRendererEvent.MOUSE_PRESSED, sc));
 	}
 
+	/**
+	 * Pick from the last frame rendered
+	 */
+	private PickInfo pick(Point2 sc) {
+		return (renderThread != null) ? renderThread.pick(sc) : renderer
+				.pick(sc);
+	}
+
 	private void fire(SceneRendererEvent event) {
 		if (listener != null) {
 			listener.handleSceneViewEvent(event);
@@ -150,7 +297,7 @@ public class AWTSceneRenderer extends DoubleBufferedPanel implements
 
 	private void handleMouseReleased(Point pos) {
 		Point2 sc = new Point2(pos.x, pos.y);
-		PickInfo pickInfo = renderer.pick(sc);
+		PickInfo pickInfo = pick(sc);
 		if (pickInfo != null) {
 			Selector mouseReleasedStringSelector = pickInfo.getSelector();
 			if ((mousePressedSelector != null)
@@ -166,7 +313,7 @@ public class AWTSceneRenderer extends DoubleBufferedPanel implements
 
 	private void handleMouseMoved(Point pos) {
 		Point2 sc = new Point2(pos.x, pos.y);
-		PickInfo id = renderer.pick(sc);
+		PickInfo id = pick(sc);
 		if (id != null) {
 			fire(new SceneRendererEvent(SceneRendererEvent.MOUSE_OVER, id));
 		}
@@ -190,6 +337,12 @@ public class AWTSceneRenderer extends DoubleBufferedPanel implements
 
 	private Renderer renderer;
 
+	private SoftwareRasterizer softwareRasterizer;
+
+	private FrameScheduler frameScheduler;
+
+	private RenderThread renderThread; // null unless pipelined
+
 	private boolean dragging;
 
 	private Selector mousePressedSelector;
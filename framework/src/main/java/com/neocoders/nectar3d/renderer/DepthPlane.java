@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+/**
+ * Depth across a polygon in display coordinates, for drawing with a depth
+ * buffer. Depth is the reciprocal of the w view coordinate, which is larger
+ * for nearer points and, unlike z, varies linearly across the display, so
+ * over a flat polygon it is the plane z = z0 + (dzdx * x) + (dzdy * y).
+ * <p>
+ * The plane is fitted to all the vertices by Newell's method, so it does not
+ * matter which of them are collinear or how they were rounded to pixels.
+ */
+class DepthPlane {
+	/**
+	 * Fit the plane to the vertices of a polygon
+	 * 
+	 * @param zs
+	 *            depth of each vertex
+	 * @param offset
+	 *            index in xs, ys and zs of the first vertex
+	 * @return false if the polygon has no area, when the plane is level at
+	 *         the depth of it's nearest vertex
+	 */
+	public boolean set(int[] xs, int[] ys, float[] zs, int offset, int n) {
+		int x0 = xs[offset];
+		int y0 = ys[offset];
+		double nx = 0.0;
+		double ny = 0.0;
+		double nz = 0.0;
+		double zmax = zs[offset];
+		double zsum = 0.0;
+		double xsum = 0.0;
+		double ysum = 0.0;
+		for (int i = offset, j = offset + n - 1; i < offset + n; j = i++) {
+			double xi = xs[i] - x0;
+			double yi = ys[i] - y0;
+			double zi = zs[i];
+			double xj = xs[j] - x0;
+			double yj = ys[j] - y0;
+			double zj = zs[j];
+			nx += (yi - yj) * (zi + zj);
+			ny += (zi - zj) * (xi + xj);
+			nz += (xi - xj) * (yi + yj);
+			xsum += xi;
+			ysum += yi;
+			zsum += zi;
+			if (zi > zmax) {
+				zmax = zi;
+			}
+		}
+		if (nz == 0.0) {
+			dzdx = 0.0;
+			dzdy = 0.0;
+			z0 = zmax;
+			return false;
+		}
+		dzdx = -nx / nz;
+		dzdy = -ny / nz;
+		z0 = (zsum - (dzdx * xsum) - (dzdy * ysum)) / n - (dzdx * x0)
+				- (dzdy * y0); // through the centroid
+		return true;
+	}
+
+	/**
+	 * Get the depth at the centre of a pixel
+	 */
+	public double at(int x, int y) {
+		return z0 + (dzdx * (x + 0.5)) + (dzdy * (y + 0.5));
+	}
+
+	public double getDzdx() {
+		return dzdx;
+	}
+
+	public double getDzdy() {
+		return dzdy;
+	}
+
+	private double z0; // depth at display origin
+
+	private double dzdx;
+
+	private double dzdy;
+}
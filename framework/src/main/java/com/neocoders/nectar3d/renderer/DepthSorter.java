@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+/**
+ * Sorts display elements into ascending order of depth, as a permutation of
+ * their indices.
+ * <p>
+ * Depths are sorted with a stable LSD radix sort on their bits, so elements of
+ * equal depth keep the order they were added in. When the permutation from
+ * the last sort is given as a starting point, as it is when a layer is rebuilt
+ * with the same number of elements, an insertion sort is tried first; that
+ * finishes in close to linear time when the order is nearly right, which it
+ * mostly is between consecutive frames, and is abandoned for the radix sort
+ * once it has moved elements more than a few times the number of elements.
+ */
+class DepthSorter {
+	public DepthSorter() {
+		keys = new long[0];
+		keysTmp = new long[0];
+		orderTmp = new int[0];
+		counts = new int[PASSES * RADIX];
+	}
+
+	/**
+	 * Sort
+	 * 
+	 * @param depths
+	 *            depth of each element
+	 * @param order
+	 *            receives indices of elements in ascending order of depth
+	 * @param n
+	 *            number of elements
+	 * @param coherent
+	 *            true when order already holds a permutation of 0..n-1 that
+	 *            is likely to be nearly sorted
+	 */
+	public void sort(double[] depths, int[] order, int n, boolean coherent) {
+		if (coherent && insertionSort(depths, order, n, n * INSERTION_MOVES)) {
+			return;
+		}
+		radixSort(depths, order, n);
+	}
+
+	/**
+	 * @return false if more than maxMoves moves were needed, in which case
+	 *         order is left as some permutation
+	 */
+	private boolean insertionSort(double[] depths, int[] order, int n,
+			int maxMoves) {
+		int moves = 0;
+		for (int i = 1; i < n; i++) {
+			int index = order[i];
+			double depth = depths[index];
+			int j = i - 1;
+			while (j >= 0 && depths[order[j]] > depth) {
+				order[j + 1] = order[j];
+				j--;
+				moves++;
+			}
+			order[j + 1] = index;
+			if (moves > maxMoves) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void radixSort(double[] depths, int[] order, int n) {
+		if (keys.length < n) {
+			keys = new long[n];
+			keysTmp = new long[n];
+			orderTmp = new int[n];
+		}
+		long[] srcKeys = keys;
+		long[] dstKeys = keysTmp;
+		int[] src = order;
+		int[] dst = orderTmp;
+		int[] counts = this.counts;
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			long bits = Double.doubleToLongBits(depths[i]);
+
+			/*
+			 * Flip so that unsigned order of keys is the order of the depths
+			 */
+
+			long key = (bits < 0) ? ~bits : (bits | Long.MIN_VALUE);
+			srcKeys[i] = key;
+			src[i] = i;
+			for (int pass = 0, c = 0; pass < PASSES; pass++, c += RADIX) {
+				counts[c + ((int) (key >>> (pass * RADIX_BITS)) & RADIX_MASK)]++;
+			}
+		}
+		for (int pass = 0, c = 0; pass < PASSES; pass++, c += RADIX) {
+			int shift = pass * RADIX_BITS;
+			if (n == 0
+					|| counts[c + ((int) (srcKeys[0] >>> shift) & RADIX_MASK)] == n) {
+				continue; // all keys have the same digit here
+			}
+			int start = 0;
+			for (int i = c; i < c + RADIX; i++) {
+				int k = counts[i];
+				counts[i] = start;
+				start += k;
+			}
+			for (int i = 0; i < n; i++) {
+				long key = srcKeys[i];
+				int d = counts[c + ((int) (key >>> shift) & RADIX_MASK)]++;
+				dstKeys[d] = key;
+				dst[d] = src[i];
+			}
+			long[] swapKeys = srcKeys;
+			srcKeys = dstKeys;
+			dstKeys = swapKeys;
+			int[] swap = src;
+			src = dst;
+			dst = swap;
+		}
+		if (src != order) {
+			System.arraycopy(src, 0, order, 0, n);
+		}
+	}
+
+	private static final int RADIX_BITS = 8;
+
+	private static final int RADIX = 1 << RADIX_BITS;
+
+	private static final int RADIX_MASK = RADIX - 1;
+
+	private static final int PASSES = 64 / RADIX_BITS;
+
+	private static final int INSERTION_MOVES = 2; // per element
+
+	private long[] keys;
+
+	private long[] keysTmp;
+
+	private int[] orderTmp;
+
+	private int[] counts;
+}
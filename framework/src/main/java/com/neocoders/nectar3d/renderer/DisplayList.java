@@ -22,45 +22,122 @@
  */
 package com.neocoders.nectar3d.renderer;
 
-import java.awt.Graphics;
 import java.util.Iterator;
 import java.util.Hashtable;
 import java.util.Vector;
-import java.awt.Color;
 import java.awt.Font;
+import java.awt.Rectangle;
 
 import com.neocoders.nectar3d.common.Point2;
+import com.neocoders.nectar3d.scene.Face;
 import com.neocoders.nectar3d.scene.Selector;
 
+/**
+ * A list of display layers, rendered in the order in which they were created.
+ * <p>
+ * A display list may be cleared and rebuilt, or retained from frame to frame:
+ * between beginFrame and endFrame, each layer is either created again, which
+ * starts a new generation of the layer if it existed in the last frame, or
+ * retained untouched. Layers neither created nor retained are discarded by
+ * endFrame.
+ */
 class DisplayList {
 	public DisplayList() {
 		layers = new Vector();
 		layerMap = new Hashtable();
 		currentLayer = null;
+		frame = 0;
+	}
+
+	/** Start a new frame. Highlighting is cleared from all layers. */
+	public void beginFrame() {
+		frame++;
+		layers.clear();
+		currentLayer = null;
+		Iterator i = layerMap.values().iterator();
+		while (i.hasNext()) {
+			((DisplayListLayer) i.next()).setHighlighted(null);
+		}
 	}
 
-	public void createLayer(Selector selector, boolean depthSort)
+	/** Finish a frame, discarding layers that were not part of it */
+	public void endFrame() {
+		Iterator i = layerMap.values().iterator();
+		while (i.hasNext()) {
+			DisplayListLayer layer = (DisplayListLayer) i.next();
+			if (layer.getFrameUsed() != frame) {
+				i.remove();
+				putLayer(layer);
+			}
+		}
+		currentLayer = null;
+	}
+
+	/**
+	 * Create a layer, or start a new generation of it if it existed in the
+	 * last frame
+	 * 
+	 * @param visibility
+	 *            Layer.UNSORTED, DEPTH_SORT or DEPTH_BUFFER
+	 */
+	public void createLayer(Selector selector, int visibility)
 			throws DisplayException {
-		if (layerMap.get(selector) != null) {
-			throw new DisplayException("layer already exists");
+		DisplayListLayer layer = (DisplayListLayer) layerMap.get(selector);
+		if (layer != null) {
+			if (layer.getFrameUsed() == frame) {
+				throw new DisplayException("layer already exists");
+			}
+			layer.setVisibility(visibility);
+			layer.begin();
+		} else {
+			layer = getLayer(visibility);
+			layerMap.put(selector, layer);
+		}
+		layer.setFrameUsed(frame);
+		layers.addElement(layer);
+	}
+
+	/**
+	 * Include a layer from the last frame in this frame without changing it
+	 * 
+	 * @return false if there is no such layer to retain
+	 */
+	public boolean retainLayer(Selector selector) {
+		DisplayListLayer layer = (DisplayListLayer) layerMap.get(selector);
+		if (layer == null || layer.getFrameUsed() != frame - 1) {
+			return false;
 		}
-		DisplayListLayer layer = getLayer(depthSort);
+		layer.setFrameUsed(frame);
 		layers.addElement(layer);
-		layerMap.put(selector, layer);
+		return true;
+	}
 
+	/**
+	 * Get the layer that is currently open
+	 * 
+	 * @return the open layer, or null if no layer is open
+	 */
+	public DisplayListLayer getCurrentLayer() {
+		return currentLayer;
 	}
 
 	/**
-	 * Get new layer or old one from re-use pool
+	 * Get new layer or old one from re-use pool, which is shared by the
+	 * display lists of all renderers and so is popped under it's monitor
 	 */
-	private DisplayListLayer getLayer(boolean depthSort) {
-		DisplayListLayer layer;
-		if (pool.size() > 0) {
-			layer = (DisplayListLayer) pool.lastElement();
-			pool.removeElementAt(pool.size() - 1);
-			layer.setDepthSort(depthSort);
+	private DisplayListLayer getLayer(int visibility) {
+		DisplayListLayer layer = null;
+		synchronized (pool) {
+			int n = pool.size();
+			if (n > 0) {
+				layer = (DisplayListLayer) pool.elementAt(n - 1);
+				pool.removeElementAt(n - 1);
+			}
+		}
+		if (layer != null) {
+			layer.setVisibility(visibility);
 		} else {
-			layer = new DisplayListLayer(depthSort);
+			layer = new DisplayListLayer(visibility);
 		}
 		return layer;
 	}
@@ -84,6 +161,7 @@ class DisplayList {
 		if (currentLayer == null) {
 			throw new DisplayException("cant close layer: no layer open");
 		}
+		currentLayer.end();
 		currentLayer = null;
 	}
 
@@ -103,15 +181,14 @@ class DisplayList {
 	 * Release layer to re-use pool
 	 */
 	private void putLayer(DisplayListLayer layer) {
+		layer.clear();
 		pool.addElement(layer);
 	}
 
 	public void clear() {
-		Iterator i = layers.iterator();
+		Iterator i = layerMap.values().iterator();
 		while (i.hasNext()) {
-			DisplayListLayer layer = (DisplayListLayer) i.next();
-			layer.clear();
-			putLayer(layer);
+			putLayer((DisplayListLayer) i.next());
 		}
 		layers.clear();
 		layerMap.clear();
@@ -125,34 +202,89 @@ class DisplayList {
 		currentLayer.clear();
 	}
 
-	public void addPolygon(PickInfo pickInfo, double depth, int[] sx, int[] sy,
-			Color fillColor, Color highlightFillColor, Color edgeColor)
+	/**
+	 * Add a polygon for each face of a geometry to the open layer, for a
+	 * GeometryProcessor to fill in
+	 * 
+	 * @param instanceIndex
+	 *            index of the instance of InstancedGeometry the faces are of,
+	 *            or -1
+	 * @return index in the open layer of the polygon for the first face
+	 */
+	public int addPolygons(Selector selector, Face[] faces, int instanceIndex)
 			throws DisplayException {
 		if (currentLayer == null) {
-			throw new DisplayException("cant add polygon: no layer open");
+			throw new DisplayException("cant add polygons: no layer open");
 		}
-		currentLayer.add(new PolygonDisplayElement(pickInfo, depth, sx, sy,
-				fillColor, highlightFillColor, edgeColor));
+		int start = currentLayer.size();
+		for (int i = 0; i < faces.length; i++) {
+			currentLayer.addPolygon(selector, i, instanceIndex,
+					faces[i].verts.length + 1);
+		}
+		return start;
 	}
 
-	public void addText(PickInfo id, double depth, Point2 anchor,
-			Point2 offset, String text, Font font, Color color)
+	/**
+	 * Add text to the open layer
+	 * 
+	 * @param anchor
+	 *            display position of the point labelled
+	 * @param offset
+	 *            display position of the text
+	 */
+	public void addText(Selector selector, double depth, String text,
+			Font font, int color, Point2 anchor, Point2 offset)
 			throws DisplayException {
 		if (currentLayer == null) {
 			throw new DisplayException("cant add text: no layer open");
 		}
-		currentLayer.add(new LabelDisplayElement(id, depth, anchor, offset,
-				text, font, color));
+		currentLayer.addLabel(selector, depth, text, font, color, anchor,
+				offset);
+	}
+
+	public void render(Rasterizer r) {
+		render(r, null);
 	}
 
-	public void render(Graphics g) {
-		DisplayList displayList;
+	/**
+	 * Render only the elements that intersect a clip rectangle
+	 * 
+	 * @param clip
+	 *            the clip rectangle, or null to render all elements
+	 */
+	public void render(Rasterizer r, Rectangle clip) {
 		Iterator i = layers.iterator();
 		while (i.hasNext()) {
-			((DisplayListLayer) i.next()).render(g);
+			((DisplayListLayer) i.next()).render(r, clip);
 		}
 	}
 
+	public int getNumLayers() {
+		return layers.size();
+	}
+
+	/**
+	 * Get a layer by its position in rendering order
+	 */
+	public DisplayListLayer layerAt(int i) {
+		return (DisplayListLayer) layers.elementAt(i);
+	}
+
+	/**
+	 * Get the union of the screen bounds of elements with any of the given
+	 * selectors
+	 * 
+	 * @return the bounds, or null if no elements have the selectors
+	 */
+	public Rectangle getBounds(Selector[] selectors) {
+		Rectangle bounds = null;
+		Iterator i = layers.iterator();
+		while (i.hasNext()) {
+			bounds = ((DisplayListLayer) i.next()).getBounds(selectors, bounds);
+		}
+		return bounds;
+	}
+
 	public PickInfo pick(Point2 sc) {
 		PickInfo pickInfo;
 		Iterator i = layers.iterator();
@@ -176,6 +308,8 @@ class DisplayList {
 
 	private Hashtable layerMap;
 
+	private int frame;
+
 	private static Vector pool = new Vector();
 
 	/**
@@ -184,9 +318,6 @@ class DisplayList {
 	 */
 	private DisplayListLayer currentLayer;
 
-	/** @link dependency */
-	/* # DepthComparator lnkDepthComparator; */
-
 	/** @link dependency */
 	/* # DisplayException lnkDisplayException; */
 }
@@ -24,8 +24,13 @@ package com.neocoders.nectar3d.renderer;
 
 import java.awt.Font;
 import java.awt.Color;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import com.neocoders.nectar3d.common.Bounds3;
 import com.neocoders.nectar3d.common.Matrix;
 import com.neocoders.nectar3d.common.Point2;
 import com.neocoders.nectar3d.common.Point3;
@@ -36,20 +41,45 @@ import com.neocoders.nectar3d.scene.Appearance;
 import com.neocoders.nectar3d.scene.Environment;
 import com.neocoders.nectar3d.scene.Face;
 import com.neocoders.nectar3d.scene.Geometry;
+import com.neocoders.nectar3d.scene.InstancedGeometry;
 import com.neocoders.nectar3d.scene.Interpolator;
+import com.neocoders.nectar3d.scene.LOD;
 import com.neocoders.nectar3d.scene.Label;
 import com.neocoders.nectar3d.scene.Layer;
 import com.neocoders.nectar3d.scene.LightSource;
+import com.neocoders.nectar3d.scene.Mesh;
 import com.neocoders.nectar3d.scene.Name;
-import com.neocoders.nectar3d.scene.SceneVisitor;
+import com.neocoders.nectar3d.scene.SceneElement;
+import com.neocoders.nectar3d.scene.SelectiveSceneVisitor;
 import com.neocoders.nectar3d.scene.Selector;
 import com.neocoders.nectar3d.scene.TransformGroup;
 
-class DisplayListBuilder implements SceneVisitor {
+/**
+ * Builds a display list from a scene graph.
+ * <p>
+ * The display list is retained between frames: for each scene element under
+ * a Layer, the builder remembers which run of display elements the element's
+ * subtree produced. On the next frame, if the element's subtree stamp, the
+ * modification stamps of the element and it's ancestors, the renderer
+ * parameters and the current appearance and it's modification stamp are all
+ * unchanged, the run is copied from the previous frame and the subtree is not
+ * traversed. A Layer whose whole subtree is unchanged is kept as it is.
+ * <p>
+ * Subtrees whose bounds lie outside the view frustum are culled: they are
+ * still traversed, since appearances in them set state for the siblings that
+ * follow, but nothing inside them is transformed or drawn, and elements that
+ * only draw are skipped altogether. Since culled subtrees produce empty runs
+ * that are retained like any others, an unchanged culled subtree costs
+ * nothing on later frames. Polygons are clipped against a near plane just in
+ * front of the centre of projection, and labels behind it are dropped.
+ */
+class DisplayListBuilder implements SelectiveSceneVisitor {
     public DisplayListBuilder(SceneRendererParams config,
                               DisplayList displayList) {
         viewMatrix = new Matrix();
-        initTempCoordinates();
+        retained = new IdentityHashMap();
+        retainSweepSize = RETAIN_SWEEP_MIN;
+        initRetainStack(64);
         initMatrixStack();
         setParams(config);
         pickSelector = null;
@@ -57,6 +87,7 @@ class DisplayListBuilder implements SceneVisitor {
         shadingEnabled = false;
         appearance = DEFAULT_APPEARANCE;
         environment = DEFAULT_ENVIRONMENT;
+        shading = defaultShading;
         this.displayList = displayList;
 
         /*
@@ -70,21 +101,11 @@ class DisplayListBuilder implements SceneVisitor {
         };
     }
 
-    private void initTempCoordinates() {
-        int i;
-        for (i = 0; i < tempVC.length; i++) {
-            tempVC[i] = new Point3();
-        }
-        for (i = 0; i < tempSC.length; i++) {
-            tempSC[i] = new Point2();
-        }
-    }
-
     private void initMatrixStack() {
         matrixStackTop = -1;
-        matrixStack[0] = new Matrix();
-        for (int i = 1; i < MATRIX_STACK_MAX; i++) {
-            matrixStack[i] = null;
+        for (int i = 0; i < MATRIX_STACK_MAX; i++) {
+            matrixStack[i] = new Matrix();
+            worldStack[i] = null;
         }
     }
 
@@ -94,14 +115,34 @@ class DisplayListBuilder implements SceneVisitor {
     }
 
     public void reset() {
+        for (int i = 0; i < itemCount; i++) {
+            items[i].clear();
+        }
+        itemCount = 0;
+        for (int i = 0; i < trackedCount; i++) {
+            trackedEntries[i] = null;
+        }
+        trackedCount = 0;
         pickSelector = null;
         matrixStackTop = -1;
         appearance = DEFAULT_APPEARANCE;
         environment = DEFAULT_ENVIRONMENT;
+        shading = defaultShading;
+        retained.clear();
+        retainDepth = 0;
+        lodLevels.clear();
+        lodTop = -1;
     }
 
     public void setParams(SceneRendererParams params) {
         this.params = params;
+        paramsVersion++;
+        if (processor == null) {
+            processor = new GeometryProcessor(params);
+        } else {
+            processor.setParams(params);
+        }
+        setParallelism(params.getParallelism());
 
         /*
            * Precompute view transform
@@ -110,6 +151,7 @@ class DisplayListBuilder implements SceneVisitor {
         viewMatrix.identity();
         viewMatrix.lookat(params.getEye(), params.getLook(), params.getUp());
         viewMatrix.perspective(params.getVPDist());
+        planesValid[0] = false;
 
         /*
            * Precompute volume-to-window ratios
@@ -123,87 +165,340 @@ class DisplayListBuilder implements SceneVisitor {
                 / (volume.ymax - volume.ymin);
     }
 
+    /**
+     * Create or discard the pool of threads that geometry is processed on
+     */
+    private void setParallelism(int parallelism) {
+        if (pool != null && pool.getParallelism() == parallelism) {
+            return;
+        }
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        if (parallelism > 1) {
+            pool = new ForkJoinPool(parallelism);
+        }
+    }
+
     public void setDisplayList(DisplayList displayList) {
         this.displayList = displayList;
+        retained.clear();
     }
 
-    public void preOrderVisitEnvironment(Environment e) {
-        if (environment != DEFAULT_ENVIRONMENT) {
-            errorHandler.handleError("nested environments");
+    private void initRetainStack(int size) {
+        retainContext = new long[size];
+        retainSubtreeStamp = new long[size];
+        retainStart = new int[size];
+        retainLayer = new DisplayListLayer[size];
+        retainAppearance = new Appearance[size];
+        retainAppearanceStamp = new long[size];
+        retainRecord = new boolean[size];
+        retainCullMask = new int[size];
+        retainCulled = new boolean[size];
+        retainDepth = 0;
+    }
+
+    private void growRetainStack() {
+        int n = retainContext.length;
+        long[] context = retainContext;
+        long[] subtreeStamp = retainSubtreeStamp;
+        int[] start = retainStart;
+        DisplayListLayer[] layer = retainLayer;
+        Appearance[] appearance = retainAppearance;
+        long[] appearanceStamp = retainAppearanceStamp;
+        boolean[] record = retainRecord;
+        int[] cullMask = retainCullMask;
+        boolean[] culled = retainCulled;
+        initRetainStack(n * 2);
+        System.arraycopy(context, 0, retainContext, 0, n);
+        System.arraycopy(subtreeStamp, 0, retainSubtreeStamp, 0, n);
+        System.arraycopy(start, 0, retainStart, 0, n);
+        System.arraycopy(layer, 0, retainLayer, 0, n);
+        System.arraycopy(appearance, 0, retainAppearance, 0, n);
+        System.arraycopy(appearanceStamp, 0, retainAppearanceStamp, 0, n);
+        System.arraycopy(record, 0, retainRecord, 0, n);
+        System.arraycopy(cullMask, 0, retainCullMask, 0, n);
+        System.arraycopy(culled, 0, retainCulled, 0, n);
+        retainDepth = n;
+    }
+
+    /** Call before traversing a scene graph */
+    public void beginFrame() {
+        frame++;
+        retainDepth = 0;
+        lodTop = -1;
+    }
+
+    /**
+     * Call after traversing a scene graph. Now and then forgets what was
+     * retained for elements that were not part of the frame or are inside
+     * subtrees that were reused wholesale, since those runs are out of date.
+     */
+    public void endFrame() {
+        processItems(); // in case a layer was not closed
+        if (retained.size() < retainSweepSize) {
             return;
         }
-        environment = e;
+        Iterator i = retained.values().iterator();
+        while (i.hasNext()) {
+            RetainedEntry entry = (RetainedEntry) i.next();
+            if (entry.layer == null) {
+                if (entry.frameUsed != frame) {
+                    i.remove();
+                }
+            } else if (entry.layer.getFrameUsed() != frame
+                    || entry.generation != entry.layer.getGeneration()) {
+                i.remove();
+            }
+        }
+        retainSweepSize = Math.max(RETAIN_SWEEP_MIN, retained.size() * 2);
     }
 
-    public void postOrderVisitEnvironment(Environment e) {
-        environment = DEFAULT_ENVIRONMENT;
+    public boolean enterElement(SceneElement element) {
+        if (lodTop >= 0 && retainDepth == lodDepth[lodTop]
+                && element != lodChosen[lodTop]) {
+            return false; // level of detail not chosen
+        }
+        long context = (retainDepth > 0) ? retainContext[retainDepth - 1] : 0L;
+        if (element.getModificationStamp() > context) {
+            context = element.getModificationStamp();
+        }
+        RetainedEntry entry = (RetainedEntry) retained.get(element);
+        DisplayListLayer layer = displayList.getCurrentLayer();
+        if (entry != null && entry.subtreeStamp == element.getSubtreeStamp()
+                && entry.contextStamp == context
+                && entry.paramsVersion == paramsVersion
+                && entry.entryAppearance == appearance
+                && entry.entryAppearanceStamp == appearance
+                        .getModificationStamp()) {
+            if (element instanceof Layer) {
+                if (layer == null
+                        && displayList.retainLayer(((Layer) element)
+                        .getStringSelector())) {
+                    entry.frameUsed = frame;
+                    appearance = entry.exitAppearance;
+                    return false;
+                }
+            } else if (layer != null && entry.layer == layer
+                    && entry.generation == layer.getGeneration() - 1) {
+                int start = layer.size();
+                layer.copyPrevious(entry.start, entry.end);
+                entry.start = start;
+                entry.end = layer.size();
+                entry.generation = layer.getGeneration();
+                entry.frameUsed = frame;
+                appearance = entry.exitAppearance;
+                trackEntry(entry);
+                return false;
+            }
+        }
+        int cullMask = (retainDepth > 0) ? retainCullMask[retainDepth - 1]
+                : ALL_PLANES;
+        boolean culled = (retainDepth > 0 && retainCulled[retainDepth - 1]);
+        if (!culled && cullMask != 0) {
+            cullMask = cull(element.getBounds(), cullMask);
+            culled = (cullMask < 0);
+        }
+        if (culled && element.getNumChildren() == 0
+                && (element instanceof Geometry || element instanceof Label
+                        || element instanceof InstancedGeometry)) {
+            return false; // draws nothing and sets no state
+        }
+        if (retainDepth == retainContext.length) {
+            growRetainStack();
+        }
+        retainContext[retainDepth] = context;
+        retainSubtreeStamp[retainDepth] = element.getSubtreeStamp();
+        retainRecord[retainDepth] = (layer != null || element instanceof Layer);
+        retainLayer[retainDepth] = layer;
+        retainStart[retainDepth] = (layer != null) ? layer.size() : 0;
+        retainAppearance[retainDepth] = appearance;
+        retainAppearanceStamp[retainDepth] = appearance.getModificationStamp();
+        retainCullMask[retainDepth] = culled ? 0 : cullMask;
+        retainCulled[retainDepth] = culled;
+        retainDepth++;
+        return true;
     }
 
-    public void preOrderVisitTransformGroup(TransformGroup xform) {
-        pushMatrix();
-        for (int i = 0; i < xform.getNumTransforms(); i++) {
-            switch (xform.getTransform(i)) {
-                case TransformGroup.ROTX:
-                    rotateMatrixX(xform.getAttribute(TransformGroup.ROTX_VAL));
-                    break;
-                case TransformGroup.ROTY:
-                    rotateMatrixY(xform.getAttribute(TransformGroup.ROTY_VAL));
-                    break;
-                case TransformGroup.ROTZ:
-                    rotateMatrixZ(xform.getAttribute(TransformGroup.ROTZ_VAL));
-                    break;
-                case TransformGroup.TRA:
-                    translateMatrix(xform.getAttribute(TransformGroup.TRAX_VAL),
-                            xform.getAttribute(TransformGroup.TRAY_VAL), xform
-                            .getAttribute(TransformGroup.TRAZ_VAL));
-                    break;
-                case TransformGroup.SCA:
-                    scaleMatrix(xform.getAttribute(TransformGroup.SCAX_VAL), xform
-                            .getAttribute(TransformGroup.SCAY_VAL), xform
-                            .getAttribute(TransformGroup.SCAZ_VAL));
-                    break;
+    /** Find out if the element being visited is in a culled subtree */
+    private boolean isCulled() {
+        return (retainDepth > 0 && retainCulled[retainDepth - 1]);
+    }
+
+    /**
+     * Test bounds, in the space of the current matrix, against the frustum
+     * planes that the enclosing bounds were not found to be wholly inside of
+     *
+     * @param mask
+     *            bit for each plane to test
+     * @return bits for the planes the bounds are not wholly inside of, which
+     *         children must be tested against, or -1 if the bounds are
+     *         outside a plane
+     */
+    private int cull(Bounds3 bounds, int mask) {
+        if (bounds.isInfinite() || bounds.isEmpty()) {
+            return mask; // cant tell, or has no extent but may set state
+        }
+        double[] p = planes;
+        int level = matrixStackTop + 1;
+        int base = level * PLANE_COUNT * 5;
+        if (!planesValid[level]) {
+            computePlanes(currentMatrix(), p, base);
+            planesValid[level] = true;
+        }
+        for (int i = 0; i < PLANE_COUNT; i++) {
+            if ((mask & (1 << i)) == 0) {
+                continue;
+            }
+            int k = base + i * 5;
+            double nx = p[k];
+            double ny = p[k + 1];
+            double nz = p[k + 2];
+            double d = p[k + 3];
+            double dist = (nx * bounds.cx) + (ny * bounds.cy) + (nz * bounds.cz)
+                    + d;
+            double r = bounds.radius * p[k + 4];
+            if (dist < -r) {
+                return -1;
+            }
+            if (dist >= r) {
+                mask &= ~(1 << i);
+                continue;
+            }
+            double far = d + (nx * ((nx > 0.0) ? bounds.xmax : bounds.xmin))
+                    + (ny * ((ny > 0.0) ? bounds.ymax : bounds.ymin))
+                    + (nz * ((nz > 0.0) ? bounds.zmax : bounds.zmin));
+            if (far < 0.0) {
+                return -1;
+            }
+            double near = d + (nx * ((nx > 0.0) ? bounds.xmin : bounds.xmax))
+                    + (ny * ((ny > 0.0) ? bounds.ymin : bounds.ymax))
+                    + (nz * ((nz > 0.0) ? bounds.zmin : bounds.zmax));
+            if (near >= 0.0) {
+                mask &= ~(1 << i);
             }
         }
+        return mask;
+    }
+
+    /**
+     * Transform the frustum planes into the space of a matrix that maps to
+     * homogeneous view coordinates. A point p there is inside a plane of view
+     * coordinates a when (p x m) . a >= 0, ie. when p . (m a) >= 0, so each
+     * plane is m a, stored as nx, ny, nz, d and the length of the normal.
+     */
+    private void computePlanes(Matrix m, double[] p, int base) {
+        Volume3 volume = params.getFrustum();
+        setPlane(m, 1.0, 0.0, -volume.xmin, 0.0, p, base); // x >= xmin.w
+        setPlane(m, -1.0, 0.0, volume.xmax, 0.0, p, base + 5); // x <= xmax.w
+        setPlane(m, 0.0, 1.0, -volume.ymin, 0.0, p, base + 10);
+        setPlane(m, 0.0, -1.0, volume.ymax, 0.0, p, base + 15);
+        setPlane(m, 0.0, 0.0, 1.0, -GeometryProcessor.NEAR_W, p, base + 20);
+    }
+
+    private void setPlane(Matrix m, double ax, double ay, double aw,
+                          double offset, double[] p, int k) {
+        double nx = (m.get(0, 0) * ax) + (m.get(0, 1) * ay) + (m.get(0, 3) * aw);
+        double ny = (m.get(1, 0) * ax) + (m.get(1, 1) * ay) + (m.get(1, 3) * aw);
+        double nz = (m.get(2, 0) * ax) + (m.get(2, 1) * ay) + (m.get(2, 3) * aw);
+        p[k] = nx;
+        p[k + 1] = ny;
+        p[k + 2] = nz;
+        p[k + 3] = (m.get(3, 0) * ax) + (m.get(3, 1) * ay) + (m.get(3, 3) * aw)
+                + offset;
+        p[k + 4] = Math.sqrt((nx * nx) + (ny * ny) + (nz * nz));
     }
 
-    private void pushMatrix() {
-        if (matrixStackTop >= MATRIX_STACK_MAX) {
+    public void leaveElement(SceneElement element) {
+        retainDepth--;
+        if (!retainRecord[retainDepth]) {
             return;
         }
-        matrixStackTop++;
-        if (matrixStack[matrixStackTop] == null) {
-            matrixStack[matrixStackTop] = new Matrix();
-        } else {
-            matrixStack[matrixStackTop].identity();
+        DisplayListLayer layer = retainLayer[retainDepth];
+        if (layer != null && layer != displayList.getCurrentLayer()) {
+            return; // not closed properly, eg. nested layers
         }
+        RetainedEntry entry = (RetainedEntry) retained.get(element);
+        if (entry == null) {
+            entry = new RetainedEntry();
+            retained.put(element, entry);
+        }
+        entry.layer = layer;
+        if (layer != null) {
+            entry.generation = layer.getGeneration();
+            entry.start = retainStart[retainDepth];
+            entry.end = layer.size();
+            trackEntry(entry);
+        }
+        entry.subtreeStamp = retainSubtreeStamp[retainDepth];
+        entry.contextStamp = retainContext[retainDepth];
+        entry.paramsVersion = paramsVersion;
+        entry.entryAppearance = retainAppearance[retainDepth];
+        entry.entryAppearanceStamp = retainAppearanceStamp[retainDepth];
+        entry.exitAppearance = appearance;
+        entry.frameUsed = frame;
+        retainLayer[retainDepth] = null;
+        retainAppearance[retainDepth] = null;
     }
 
-    private void rotateMatrixX(double angle) {
-        matrixStack[matrixStackTop].rotateX(angle);
-    }
-
-    private void rotateMatrixY(double angle) {
-        matrixStack[matrixStackTop].rotateY(angle);
+    public void preOrderVisitEnvironment(Environment e) {
+        if (environment != DEFAULT_ENVIRONMENT) {
+            errorHandler.handleError("nested environments");
+            return;
+        }
+        environment = e;
+        SceneElement live = e.isSnapshot() ? e.getOriginal() : e;
+        ShadingTable table = (ShadingTable) environmentShading.get(live);
+        if (table == null) {
+            table = new ShadingTable();
+            environmentShading.put(live, table);
+        }
+        table.setLights(e); // rebuilt only if they have changed
+        shading = table;
     }
 
-    private void rotateMatrixZ(double angle) {
-        matrixStack[matrixStackTop].rotateZ(angle);
+    public void postOrderVisitEnvironment(Environment e) {
+        environment = DEFAULT_ENVIRONMENT;
+        shading = defaultShading;
     }
 
-    private void translateMatrix(double x, double y, double z) {
-        matrixStack[matrixStackTop].translate(x, y, z);
+    /**
+     * Pushes the world matrix of the group, which the group caches against the
+     * latest modification stamp of itself and it's ancestors, composed with the
+     * view matrix, so that each vertex is transformed by only the top matrix
+     */
+    public void preOrderVisitTransformGroup(TransformGroup xform) {
+        if (isCulled()) {
+            return;
+        }
+        Matrix parentWorld = (matrixStackTop >= 0) ? worldStack[matrixStackTop]
+                : IDENTITY;
+        long context = (retainDepth > 0) ? retainContext[retainDepth - 1]
+                : xform.getModificationStamp();
+        pushMatrix(xform.getWorldMatrix(parentWorld, context));
     }
 
-    private void scaleMatrix(double x, double y, double z) {
-        matrixStack[matrixStackTop].scale(x, y, z);
+    private void pushMatrix(Matrix world) {
+        if (matrixStackTop >= MATRIX_STACK_MAX - 1) {
+            return;
+        }
+        matrixStackTop++;
+        worldStack[matrixStackTop] = world;
+        matrixStack[matrixStackTop].multiply(world, viewMatrix);
+        planesValid[matrixStackTop + 1] = false;
     }
 
     public void postOrderVisitTransformGroup(TransformGroup tg) {
+        if (isCulled()) {
+            return;
+        }
         popMatrix();
     }
 
     private void popMatrix() {
         if (matrixStackTop >= 0) {
+            worldStack[matrixStackTop] = null;
             matrixStackTop--;
         }
     }
@@ -211,180 +506,269 @@ class DisplayListBuilder implements SceneVisitor {
     public void preOrderVisitGeometry(Geometry g) {
     }
 
+    /**
+     * Adds a polygon for each face and has them filled in by a
+     * GeometryProcessor, straight away or, when geometry is processed in
+     * parallel, once the enclosing layer has been traversed
+     */
     public void postOrderVisitGeometry(Geometry g) {
-        Point3[] verts = g.getVertices();
-        Face[] faces = g.getFaces();
-        if (verts.length > MAX_VERTEX) {
-            errorHandler.handleError("too many vertices in geometry element");
+        if (isCulled()) {
             return;
         }
-        for (int i = 0; i < verts.length; i++) {
-            tempVC[i] = transform(verts[i]);
+        GeometryItem item = addGeometry(g.getVertices(), g.getFaces(),
+                pickSelector, -1);
+        if (item == null) {
+            return;
         }
-        mapToDisplay(tempVC, verts.length, tempSC);
-        for (int j = 0; j < faces.length; j++) {
-            Face face = faces[j];
-            Vector3 normal = getNormal(tempVC[face.verts[0]],
-                    tempVC[face.verts[1]], tempVC[face.verts[2]]);
-            if (isBackFace(normal)) {
-                // System.out.println("DisplayListBuilder::BACKFACE");
-                continue;
-            }
-            int[] sx = new int[face.verts.length];
-            int[] sy = new int[face.verts.length];
-
-            double depth = Double.MAX_VALUE;
-            for (int k = 0; k < face.verts.length; k++) {
-                int vert = face.verts[k];
-                sx[k] = tempSC[vert].x;
-                sy[k] = tempSC[vert].y;
-                // System.out.println("sx["+k+"] = " + sx[k] + ", sy["+k+"] = "
-                // + sy[k]);
-                if (tempVC[vert].z < depth) {
-                    depth = tempVC[vert].z;
-                }
-            }
-            Color fillColor = appearance.getFillColor();
-            Color edgeColor = appearance.getEdgeColor();
-            Color highlightFillColor = appearance.getHighlightFillColor();
-            if (shadingEnabled) {
-                fillColor = getShadedColor(fillColor, normal);
-                highlightFillColor = getShadedColor(highlightFillColor, normal);
-            }
-            if (fogEnabled) {
-                fillColor = foggedColor(fillColor, depth);
-                edgeColor = foggedColor(edgeColor, depth);
-            }
-            PickInfo pickInfo = new PickInfo(pickSelector, j); // record pick
-            // name and
-            // index of this
-            // face
-            try {
-                // System.out.println("adding face " + j + " to display list");
-                displayList.addPolygon(pickInfo, depth, sx, sy, fillColor,
-                        highlightFillColor, edgeColor);
-            } catch (DisplayException de) {
-                errorHandler.handleError("cant render geometry: no layer open");
-            }
+        item.matrix.set(currentMatrix());
+        if (g.isScaled()) {
+            item.matrix.preScale(g.getXScale(), g.getYScale(), g.getZScale());
         }
+        item.fillColor = appearance.getFillColor().getRGB() & 0xffffff;
+        processGeometry(item);
     }
 
-    private Point3 transform(Point3 wc) {
-        Point3 vc = new Point3(wc.x, wc.y, wc.z);
-        for (int i = matrixStackTop; i >= 0; i--) {
-            vc = matrixStack[i].transform(vc);
-        }
-        return viewMatrix.transform(vc);
+    public void preOrderVisitInstancedGeometry(InstancedGeometry g) {
     }
 
-    private Point2 mapToDisplay(Point3 vc) {
-        Window2 window = params.getWindow();
-        Volume3 volume = params.getFrustum();
-        return new Point2(window.xmin
-                + (int) (((vc.x / vc.w) - volume.xmin) * xVolToWinMap),
-                window.ymin
-                        + (int) (((vc.y / vc.w) - volume.ymin) * yVolToWinMap));
+    /**
+     * Adds polygons for the faces of each instance in one pass over the
+     * instance arrays, as for Geometry, with the instance's matrix composed
+     * with the current one
+     */
+    public void postOrderVisitInstancedGeometry(InstancedGeometry g) {
+        if (isCulled()) {
+            return;
+        }
+        Mesh mesh = g.getMesh();
+        Point3[] verts = mesh.getVertices();
+        Face[] faces = mesh.getFaces();
+        double[] matrices = g.getInstanceMatrices();
+        Matrix matrix = currentMatrix();
+        Matrix instanceMatrix = tempInstanceMatrix;
+        int fillColor = appearance.getFillColor().getRGB() & 0xffffff;
+        for (int i = 0, n = g.getNumInstances(); i < n; i++) {
+            Selector selector = g.getSelector(i);
+            GeometryItem item = addGeometry(verts, faces,
+                    (selector != null) ? selector : pickSelector, i);
+            if (item == null) {
+                return;
+            }
+            instanceMatrix.set(matrices, i * 16);
+            item.matrix.multiply(instanceMatrix, matrix);
+            int instanceColor = g.getFillColor(i);
+            item.fillColor = (instanceColor == InstancedGeometry.NO_COLOR) ? fillColor
+                    : instanceColor;
+            processGeometry(item);
+        }
     }
 
-    private void mapToDisplay(Point3[] vc, int nVerts, Point2[] sc) {
-        Window2 window = params.getWindow();
-        Volume3 volume = params.getFrustum();
-        for (int i = 0; i < nVerts; i++) {
-            sc[i].x = window.xmin
-                    + (int) (((vc[i].x / vc[i].w) - volume.xmin) * xVolToWinMap);
-            sc[i].y = window.ymin
-                    + (int) (((vc[i].y / vc[i].w) - volume.ymin) * yVolToWinMap);
+    /**
+     * Add a polygon for each face to the open layer, and get an item for them
+     * with all but it's matrix and fill color set from the current state
+     *
+     * @param instanceIndex
+     *            index of the instance of InstancedGeometry, or -1
+     * @return the item, or null if the geometry can't be rendered
+     */
+    private GeometryItem addGeometry(Point3[] verts, Face[] faces,
+            Selector selector, int instanceIndex) {
+        if (verts.length > GeometryProcessor.MAX_VERTEX) {
+            errorHandler.handleError("too many vertices in geometry element");
+            return null;
+        }
+        int start;
+        try {
+            start = displayList.addPolygons(selector, faces, instanceIndex);
+        } catch (DisplayException de) {
+            errorHandler.handleError("cant render geometry: no layer open");
+            return null;
         }
+        GeometryItem item = (pool != null) ? nextItem() : serialItem;
+        item.verts = verts;
+        item.faces = faces;
+        item.edgeColor = appearance.getEdgeColor().getRGB() & 0xffffff;
+        item.highlightFillColor = appearance.getHighlightFillColor().getRGB() & 0xffffff;
+        item.shadingEnabled = shadingEnabled;
+        item.fogEnabled = fogEnabled;
+        item.shading = shading;
+        item.layer = displayList.getCurrentLayer();
+        item.start = start;
+        return item;
     }
 
-    private Vector3 getNormal(Point3 a, Point3 b, Point3 c) {
-        a = new Point3(a.x / a.w, a.y / a.w, a.z);
-        b = new Point3(b.x / b.w, b.y / b.w, b.z);
-        c = new Point3(c.x / c.w, c.y / c.w, c.z);
-        Vector3 p = new Vector3(c.x - b.x, c.y - b.y, c.z - b.z);
-        Vector3 q = new Vector3(a.x - b.x, a.y - b.y, a.z - b.z);
-        return Vector3.cross(p, q);
+    /**
+     * Process an item straight away unless geometry is processed in parallel
+     */
+    private void processGeometry(GeometryItem item) {
+        if (pool == null) {
+            processor.process(item);
+            item.layer.removeEmptyPolygons(item.start, null);
+            item.clear();
+        }
     }
 
-    private boolean isBackFace(Vector3 normal) {
-        return (Vector3.dot(Vector3.normalize(normal), new Vector3(0.0, 0.0,
-                1.0)) <= 0.0);
+    private GeometryItem nextItem() {
+        if (itemCount == items.length) {
+            GeometryItem[] a = new GeometryItem[items.length * 2];
+            System.arraycopy(items, 0, a, 0, itemCount);
+            items = a;
+        }
+        if (items[itemCount] == null) {
+            items[itemCount] = new GeometryItem();
+        }
+        return items[itemCount++];
     }
 
-    private Color getShadedColor(Color color, Vector3 normal) {
-        Color newColor = new Color(color.getRed(), color.getGreen(), color
-                .getBlue());
-        LightSource ls;
-        Iterator iterator = environment.getLightSources();
-        while (iterator.hasNext()) {
-            ls = (LightSource) iterator.next();
-            newColor = addColors(newColor, ls.getColor(), Vector3.dot(Vector3
-                    .normalize(normal), ls.getDir()));
+    /**
+     * Note an entry whose run was placed in the current generation of a layer
+     * while geometry is waiting to be processed, since the run must be moved
+     * when the polygons of back faces are removed
+     */
+    private void trackEntry(RetainedEntry entry) {
+        if (pool == null || itemCount == 0) {
+            return;
+        }
+        if (trackedCount == trackedEntries.length) {
+            RetainedEntry[] a = new RetainedEntry[trackedCount * 2];
+            System.arraycopy(trackedEntries, 0, a, 0, trackedCount);
+            trackedEntries = a;
         }
-        return newColor;
+        trackedEntries[trackedCount++] = entry;
     }
 
-    private Color addColors(Color a, Color b, double weight) {
-        return new Color(clampColorComponent(a.getRed()
-                + (int) (b.getRed() * weight)), clampColorComponent(a
-                .getGreen()
-                + (int) (b.getGreen() * weight)), clampColorComponent(a
-                .getBlue()
-                + (int) (b.getBlue() * weight)));
+    /**
+     * Process the geometry items waiting to be processed, which are all in
+     * one layer, splitting them between threads when there are enough faces,
+     * then remove the polygons left empty and move runs of elements to match
+     */
+    private void processItems() {
+        if (itemCount == 0) {
+            return;
+        }
+        if (itemFaces.length < itemCount + 1) {
+            itemFaces = new int[items.length + 1];
+        }
+        int faces = 0;
+        for (int i = 0; i < itemCount; i++) {
+            itemFaces[i] = faces;
+            faces += items[i].faces.length;
+        }
+        itemFaces[itemCount] = faces;
+        if (faces < PARALLEL_MIN_FACES) {
+            for (int i = 0; i < itemCount; i++) {
+                processor.process(items[i]);
+            }
+        } else {
+            pool.invoke(new ProcessTask(0, itemCount));
+        }
+        DisplayListLayer layer = items[0].layer;
+        int from = items[0].start;
+        if (shift.length < layer.size() - from + 1) {
+            shift = new int[(layer.size() - from + 1) * 2];
+        }
+        layer.removeEmptyPolygons(from, shift);
+        for (int i = 0; i < trackedCount; i++) {
+            RetainedEntry entry = trackedEntries[i];
+            if (entry.layer == layer && entry.start >= from) {
+                entry.start -= shift[entry.start - from];
+                entry.end -= shift[entry.end - from];
+            }
+            trackedEntries[i] = null;
+        }
+        trackedCount = 0;
+        for (int i = 0; i < itemCount; i++) {
+            items[i].clear();
+        }
+        itemCount = 0;
     }
 
-    private int clampColorComponent(int val) {
-        return val < 0 ? 0 : val > 255 ? 255 : val;
+    /**
+     * Processes a range of geometry items, splitting it in two by face count
+     * while it is large enough to be worth sharing between threads
+     */
+    private class ProcessTask extends RecursiveAction {
+        ProcessTask(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo > 1 && itemFaces[hi] - itemFaces[lo] > PARALLEL_GRAIN) {
+                int half = (itemFaces[lo] + itemFaces[hi]) / 2;
+                int mid = lo + 1;
+                while (mid < hi - 1 && itemFaces[mid] < half) {
+                    mid++;
+                }
+                invokeAll(new ProcessTask(lo, mid), new ProcessTask(mid, hi));
+                return;
+            }
+            GeometryProcessor p = (GeometryProcessor) processors.get();
+            p.setParams(params);
+            for (int i = lo; i < hi; i++) {
+                p.process(items[i]);
+            }
+        }
+
+        private final int lo;
+
+        private final int hi;
     }
 
-    private Color foggedColor(java.awt.Color color, double depth) {
-        Color bgColor = params.getBackgroundColor();
-        Volume3 volume = params.getFrustum();
-        double factor = (volume.zmax - depth) / (depth - volume.zmin);
-        return new java.awt.Color(interpolate(factor, color.getRed(), bgColor
-                .getRed()), interpolate(factor, color.getGreen(), bgColor
-                .getGreen()), interpolate(factor, color.getBlue(), bgColor
-                .getBlue()));
+    /**
+     * Matrix that transforms model coordinates at the current point of
+     * traversal to view coordinates
+     */
+    private Matrix currentMatrix() {
+        return (matrixStackTop >= 0) ? matrixStack[matrixStackTop] : viewMatrix;
     }
 
-    private int interpolate(double factor, int min, int max) {
-        int val = (int) (min + (factor * (double) (max - min)));
-        if (val < min) {
-            return min;
-        }
-        if (val > max) {
-            return max;
-        }
-        return val;
+    private void mapToDisplay(Point3 vc, Point2 sc) {
+        Window2 window = params.getWindow();
+        Volume3 volume = params.getFrustum();
+        sc.x = window.xmin + (int) (((vc.x / vc.w) - volume.xmin) * xVolToWinMap);
+        sc.y = window.ymin + (int) (((vc.y / vc.w) - volume.ymin) * yVolToWinMap);
     }
 
     public void preOrderVisitLabel(Label text) {
     }
 
+    /**
+     * Font scaled for perspective, from a cache of fonts by whole point size
+     */
     private Font perspectiveFont(Font font, Point3 vc) {
         double size = (double) font.getSize();
-        return new Font(font.getFamily(), font.getStyle(), (int) (size / vc.w));
+        return fontCache.get(font.getFamily(), font.getStyle(),
+                (int) (size / vc.w));
     }
 
     public void postOrderVisitLabel(Label text) {
-        Point3 anchor3 = transform(new Point3(0.0, 0.0, 0.0));
+        if (isCulled()) {
+            return;
+        }
+        Point3 anchor3 = tempLabelAnchor;
+        anchor3.set(0.0, 0.0, 0.0, 1.0);
+        currentMatrix().transform(anchor3, anchor3);
         Point3 offset3 = text.getOffset();
-        Point3 pos3 = new Point3(anchor3.x + offset3.x, anchor3.y + offset3.y,
-                anchor3.z + offset3.z, anchor3.w);
-        Point2 anchor2 = mapToDisplay(anchor3);
-        Point2 offset2 = mapToDisplay(pos3);
+        Point3 pos3 = tempLabelPos;
+        pos3.set(anchor3.x + offset3.x, anchor3.y + offset3.y, anchor3.z
+                + offset3.z, anchor3.w);
+        if (anchor3.w < GeometryProcessor.NEAR_W) {
+            return; // behind the near plane
+        }
         java.awt.Font font = perspectiveFont(text.getFont(), anchor3);
-        java.awt.Color color = appearance.getFillColor();
+        int color = appearance.getFillColor().getRGB() & 0xffffff;
         double depth = pos3.z;
         if (shadingEnabled) {
         }
         if (fogEnabled) {
-            color = foggedColor(color, depth);
+            color = processor.foggedColor(color, depth);
         }
-        PickInfo id = new PickInfo(pickSelector);
+        mapToDisplay(anchor3, tempLabelAnchor2);
+        mapToDisplay(pos3, tempLabelPos2);
         try {
-            displayList.addText(id, depth, anchor2, offset2, text.getText(),
-                    font, color);
+            displayList.addText(pickSelector, depth, text.getText(), font,
+                    color, tempLabelAnchor2, tempLabelPos2);
         } catch (DisplayException de) {
             errorHandler.handleError("cant add text:no layer open");
         }
@@ -402,13 +786,97 @@ class DisplayListBuilder implements SceneVisitor {
         pickSelector = null;
     }
 
+    /**
+     * Interpolators are updated by the Animator before the scene is
+     * traversed, so there is nothing to do for them here
+     */
     public void preOrderVisitInterpolator(Interpolator interpolator) {
-        interpolator.update(params.getTimeElapsed());
     }
 
     public void postOrderVisitInterpolator(Interpolator interpolator) {
     }
 
+    /**
+     * Chooses which level of detail to visit, by the size or distance of the
+     * bounding sphere of all levels in the space of the current matrix. What
+     * is retained for elements above stays valid, since the choice depends
+     * only on the current matrix and the params.
+     */
+    public void preOrderVisitLOD(LOD lod) {
+        SceneElement live = lod.isSnapshot() ? lod.getOriginal() : lod;
+        int[] chosen = (int[]) lodLevels.get(live);
+        if (chosen == null) {
+            chosen = new int[] { -1 };
+            lodLevels.put(live, chosen);
+        }
+        int level = chosen[0];
+        if (!isCulled()) {
+            level = lod.chooseLevel(getLODValue(lod), level);
+            chosen[0] = level;
+        } else if (level < 0) {
+            level = 0; // only traversed for the state it sets
+        }
+        if (lodTop == lodChosen.length - 1) {
+            growLODStack();
+        }
+        lodTop++;
+        lodChosen[lodTop] = (level >= 0 && level < lod.getNumChildren()) ? lod
+                .getLevel(level) : null;
+        lodDepth[lodTop] = retainDepth;
+    }
+
+    /**
+     * Projected diameter in pixels or distance from the eye along the line of
+     * sight of the bounding sphere of a level of detail element
+     */
+    private double getLODValue(LOD lod) {
+        boolean size = (lod.getMetric() == LOD.SIZE);
+        Bounds3 bounds = lod.getBounds();
+        if (bounds.isEmpty() || bounds.isInfinite()) {
+            return size ? Double.MAX_VALUE : 0.0;
+        }
+        Matrix m = currentMatrix();
+        Point3 center = tempLODCenter;
+        center.set((bounds.xmin + bounds.xmax) * 0.5,
+                (bounds.ymin + bounds.ymax) * 0.5,
+                (bounds.zmin + bounds.zmax) * 0.5, 1.0);
+        m.transform(center, center);
+        if (center.w < GeometryProcessor.NEAR_W) {
+            return size ? Double.MAX_VALUE : 0.0; // eye is inside or close
+        }
+        if (!size) {
+            return center.w * Math.abs(params.getVPDist());
+        }
+        double scale = 0.0; // largest squared scale of an axis
+        for (int col = 0; col < 3; col++) {
+            double x = m.get(0, col);
+            double y = m.get(1, col);
+            double z = m.get(2, col);
+            scale = Math.max(scale, (x * x) + (y * y) + (z * z));
+        }
+        double dx = bounds.xmax - bounds.xmin;
+        double dy = bounds.ymax - bounds.ymin;
+        double dz = bounds.zmax - bounds.zmin;
+        double diameter = Math.sqrt(((dx * dx) + (dy * dy) + (dz * dz)) * scale);
+        return (diameter / center.w) * xVolToWinMap;
+    }
+
+    private void growLODStack() {
+        SceneElement[] chosen = new SceneElement[lodChosen.length * 2];
+        int[] depth = new int[lodDepth.length * 2];
+        System.arraycopy(lodChosen, 0, chosen, 0, lodChosen.length);
+        System.arraycopy(lodDepth, 0, depth, 0, lodDepth.length);
+        lodChosen = chosen;
+        lodDepth = depth;
+    }
+
+    public void postOrderVisitLOD(LOD lod) {
+        if (lodTop >= 0) {
+            lodChosen[lodTop] = null;
+            lodTop--;
+        }
+    }
+
     public void preOrderVisitMaterial(Appearance appearance) {
         this.appearance = appearance;
     }
@@ -423,7 +891,7 @@ class DisplayListBuilder implements SceneVisitor {
         }
         try {
             displayList.createLayer(layer.getStringSelector(), layer
-                    .getDepthSort());
+                    .getVisibility());
             displayList.openLayer(layer.getStringSelector());
             fogEnabled = layer.getFog();
             shadingEnabled = layer.getShade();
@@ -433,6 +901,7 @@ class DisplayListBuilder implements SceneVisitor {
     }
 
     public void postOrderVisitLayer(Layer layer) {
+        processItems();
         try {
             displayList.closeLayer();
         } catch (DisplayException de) {
@@ -444,7 +913,11 @@ class DisplayListBuilder implements SceneVisitor {
 
     public final static int MATRIX_STACK_MAX = 100;
 
-    private Matrix[] matrixStack = new Matrix[MATRIX_STACK_MAX];
+    private final static Matrix IDENTITY = new Matrix();
+
+    private Matrix[] matrixStack = new Matrix[MATRIX_STACK_MAX]; // world x view
+
+    private Matrix[] worldStack = new Matrix[MATRIX_STACK_MAX]; // owned by groups
 
     private int matrixStackTop;
 
@@ -467,14 +940,67 @@ class DisplayListBuilder implements SceneVisitor {
 
     private boolean shadingEnabled;
 
-    public final static int MAX_VERTEX = 400;
+    private final Matrix tempInstanceMatrix = new Matrix();
+
+    private final FontCache fontCache = new FontCache(FONT_CACHE_SIZE);
+
+    private final static int FONT_CACHE_SIZE = 64; // label sizes kept
+
+    private final Point3 tempLabelAnchor = new Point3();
+
+    private final Point3 tempLabelPos = new Point3();
+
+    private final Point2 tempLabelAnchor2 = new Point2(); // display coords
+
+    private final Point2 tempLabelPos2 = new Point2();
+
+    /*
+     * Geometry processing
+     */
+
+    private GeometryProcessor processor; // for the rendering thread
+
+    private final GeometryItem serialItem = new GeometryItem();
+
+    private ForkJoinPool pool; // null unless processing in parallel
+
+    private final ThreadLocal processors = new ThreadLocal() {
+        protected Object initialValue() {
+            return new GeometryProcessor(params);
+        }
+    }; // GeometryProcessor for each thread of the pool
+
+    private GeometryItem[] items = new GeometryItem[64]; // waiting to be
+    // processed in parallel
+
+    private int itemCount;
+
+    private int[] itemFaces = new int[65]; // faces before each item
+
+    private RetainedEntry[] trackedEntries = new RetainedEntry[64];
+
+    private int trackedCount;
+
+    private int[] shift = new int[0];
+
+    private final static int PARALLEL_MIN_FACES = 2048; // fewer are
+    // processed on the rendering thread
+
+    private final static int PARALLEL_GRAIN = 1024; // faces per task
+
+    /*
+     * View frustum culling
+     */
+
+    private final static int PLANE_COUNT = 5;
+
+    private final static int ALL_PLANES = (1 << PLANE_COUNT) - 1;
 
-    private static final Point3[] tempVC = new Point3[MAX_VERTEX]; // temp view
-    // coords
+    private final double[] planes = new double[(MATRIX_STACK_MAX + 1)
+            * PLANE_COUNT * 5]; // frustum planes in the space of each matrix
+    // on the stack, the view matrix first
 
-    private static final Point2[] tempSC = new Point2[MAX_VERTEX]; // temp
-    // world
-    // coords
+    private final boolean[] planesValid = new boolean[MATRIX_STACK_MAX + 1];
 
     private Appearance appearance; // current material properties
 
@@ -484,9 +1010,65 @@ class DisplayListBuilder implements SceneVisitor {
 
     private final static Environment DEFAULT_ENVIRONMENT = new Environment();
 
+    private ShadingTable shading; // for the current environment
+
+    private WeakHashMap environmentShading = new WeakHashMap(); // ShadingTable
+    // kept between frames for each Environment, rebuilt when it's lights change
+
+    private final ShadingTable defaultShading = new ShadingTable(); // no lights
+
     /**
      * @supplierCardinality 1
      * @clientCardinality 1
      */
     private DisplayList displayList;
+
+    /*
+     * Retained display list state
+     */
+
+    private IdentityHashMap retained; // RetainedEntry for each SceneElement
+
+    private int frame;
+
+    private int paramsVersion;
+
+    private int retainSweepSize; // sweep retained entries beyond this many
+
+    private final static int RETAIN_SWEEP_MIN = 1024;
+
+    private int retainDepth; // stack of elements being traversed
+
+    private long[] retainContext;
+
+    private long[] retainSubtreeStamp;
+
+    private int[] retainStart;
+
+    private DisplayListLayer[] retainLayer;
+
+    private Appearance[] retainAppearance;
+
+    private long[] retainAppearanceStamp; // modified in place by set methods
+
+    private boolean[] retainRecord;
+
+    private int[] retainCullMask; // frustum planes still to be tested
+
+    private boolean[] retainCulled;
+
+    /*
+     * Level of detail state
+     */
+
+    private WeakHashMap lodLevels = new WeakHashMap(); // int[1] level chosen
+    // last for each LOD
+
+    private int lodTop = -1; // stack of LODs being traversed
+
+    private SceneElement[] lodChosen = new SceneElement[16]; // level to visit
+
+    private int[] lodDepth = new int[16]; // retain depth of it's children
+
+    private final Point3 tempLODCenter = new Point3();
 }
@@ -22,92 +22,874 @@
  */
 package com.neocoders.nectar3d.renderer;
 
-import java.awt.Graphics;
-import java.util.Iterator;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
 
 import com.neocoders.nectar3d.common.Point2;
+import com.neocoders.nectar3d.scene.Layer;
 import com.neocoders.nectar3d.scene.Selector;
 
+/**
+ * A layer of display elements. Elements are kept in the order they were added
+ * in, and are rendered in that order or in depth order, or with a depth buffer
+ * in the order added with labels last.
+ * <p>
+ * Elements are not objects but indices into columns of primitive arrays:
+ * kind, selector, primitive and instance index for picking, depth, packed colors,
+ * screen bounds, and an offset into int arrays of x and y coordinates that
+ * hold the vertices of all the elements, alongside a float array of their
+ * depths for layers drawn with a depth buffer. A polygon reserves one more
+ * vertex than its face has, for clipping against the near plane. A label keeps its
+ * anchor and offset as two vertices, and its text and font alongside. The
+ * columns grow to the most elements the layer has held and are then only
+ * reset between frames, so a layer being rebuilt every frame allocates
+ * nothing once it has reached its size.
+ * <p>
+ * A layer may be rebuilt from frame to frame: begin starts a new generation
+ * in a second set of columns, keeping those of the previous generation so
+ * that runs of them can be copied into the new generation rather than
+ * regenerated from the scene graph.
+ * <p>
+ * Picking goes through a PickGrid of element bounds, which is built on the
+ * first pick after the layer changes and kept while the layer is retained.
+ * In a layer drawn with a depth buffer, the polygon picked is the one nearest
+ * at the pick position, whatever order it was drawn in.
+ */
 class DisplayListLayer {
-	public DisplayListLayer(boolean toDepthSort) {
-		this.toDepthSort = toDepthSort;
-		list = new SortableVector(1000);
-		// list.removeAllElements();
+	/**
+	 * @param visibility
+	 *            Layer.UNSORTED, DEPTH_SORT or DEPTH_BUFFER
+	 */
+	public DisplayListLayer(int visibility) {
+		this.visibility = visibility;
+		sorter = new DepthSorter();
+		order = new int[INITIAL_ELEMENTS];
+		sortedCount = 0;
+		pickGrid = new PickGrid();
+		pickGridValid = false;
+		elements = new Columns();
+		previousElements = new Columns();
+		generation = 0;
 		highlightStringSelectors = null;
-		depthSortPending = false;
+		ordering = ADDED_ORDER;
+		orderValid = false;
+		depthBuffering = false;
+	}
+
+	public void setVisibility(int visibility) {
+		this.visibility = visibility;
+		orderValid = false;
 	}
 
-	public void setDepthSort(boolean toDepthSort) {
-		this.toDepthSort = toDepthSort;
+	/**
+	 * Find out if vertex depths are needed, for drawing with a depth buffer
+	 */
+	public boolean isDepthBuffered() {
+		return visibility == Layer.DEPTH_BUFFER;
 	}
 
+	/**
+	 * Empty both generations, as when the layer is released to the pool.
+	 * The generation advances by two, so that a run remembered from before
+	 * never looks like it is from the generation previous to the next one.
+	 */
 	public void clear() {
-		list.removeAllElements();
+		pickGridValid = false;
+		ordering = ADDED_ORDER;
+		orderValid = false;
+		sortedCount = 0;
+		elements.clear();
+		previousElements.clear();
+		generation += 2;
 		highlightStringSelectors = null;
 	}
 
-	public void add(AbstractDisplayElement element) {
-		list.addElement(element);
-		if (toDepthSort) {
-			depthSortPending = true;
+	/**
+	 * Start a new generation of this layer, keeping the elements of the
+	 * current generation available to copyPrevious
+	 */
+	public void begin() {
+		Columns swap = previousElements;
+		previousElements = elements;
+		elements = swap;
+		elements.reset();
+		generation++;
+	}
+
+	/**
+	 * Finish building the current generation, ready for rendering
+	 */
+	public void end() {
+		pickGridValid = false;
+		orderValid = false;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	public int getFrameUsed() {
+		return frameUsed;
+	}
+
+	public void setFrameUsed(int frame) {
+		this.frameUsed = frame;
+	}
+
+	/**
+	 * Get the number of elements added so far to the current generation
+	 */
+	public int size() {
+		return elements.count;
+	}
+
+	/**
+	 * Add a polygon element with room for a number of vertices, whose
+	 * coordinates, colors and depth the caller fills in afterwards
+	 * 
+	 * @return index of the element
+	 */
+	public int addPolygon(Selector selector, int primitiveIndex,
+			int instanceIndex, int maxVerts) {
+		Columns c = elements;
+		int i = c.add(POLYGON, maxVerts);
+		c.selector[i] = selector;
+		c.primitive[i] = primitiveIndex;
+		c.instance[i] = instanceIndex;
+		return i;
+	}
+
+	/**
+	 * Set the depth and colors of a polygon element
+	 */
+	public void setPolygon(int i, double depth, int fillColor,
+			int highlightFillColor, int edgeColor) {
+		Columns c = elements;
+		c.depth[i] = depth;
+		c.fill[i] = fillColor;
+		c.highlightFill[i] = highlightFillColor;
+		c.edge[i] = edgeColor;
+	}
+
+	/**
+	 * Get the x-coordinates of the vertices of the current generation, which
+	 * those of an element start at getVertexStart in. The array is replaced
+	 * when it grows, so is only good until the next element is added.
+	 */
+	public int[] getXs() {
+		return elements.xs;
+	}
+
+	/**
+	 * Get the y-coordinates of vertices, as for getXs
+	 */
+	public int[] getYs() {
+		return elements.ys;
+	}
+
+	/**
+	 * Get the depths of vertices, the reciprocal of their w view coordinate,
+	 * as for getXs. Only used when the layer is depth buffered.
+	 */
+	public float[] getZs() {
+		return elements.zs;
+	}
+
+	/**
+	 * Get the index in getXs and getYs of an element's first vertex
+	 */
+	public int getVertexStart(int i) {
+		return elements.vertStart[i];
+	}
+
+	/**
+	 * Set the number of vertices of a polygon element, once their coordinates
+	 * are filled in, and compute its bounds from them. A polygon left with no
+	 * vertices is removed by removeEmptyPolygons.
+	 */
+	public void setNumVertices(int i, int n) {
+		Columns c = elements;
+		c.vertCount[i] = n;
+		int[] xs = c.xs;
+		int[] ys = c.ys;
+		int x0 = Integer.MAX_VALUE;
+		int y0 = Integer.MAX_VALUE;
+		int x1 = Integer.MIN_VALUE;
+		int y1 = Integer.MIN_VALUE;
+		for (int k = c.vertStart[i], end = k + n; k < end; k++) {
+			if (xs[k] < x0) {
+				x0 = xs[k];
+			}
+			if (xs[k] > x1) {
+				x1 = xs[k];
+			}
+			if (ys[k] < y0) {
+				y0 = ys[k];
+			}
+			if (ys[k] > y1) {
+				y1 = ys[k];
+			}
+		}
+		c.xmin[i] = x0;
+		c.ymin[i] = y0;
+		c.xmax[i] = x1;
+		c.ymax[i] = y1;
+	}
+
+	/**
+	 * Add a label element. Its bounds are estimated generously, allowing a
+	 * whole em for each character, so that no font metrics need to be
+	 * created.
+	 * 
+	 * @return index of the element
+	 */
+	public int addLabel(Selector selector, double depth, String text,
+			Font font, int color, Point2 anchor, Point2 offset) {
+		Columns c = elements;
+		int i = c.add(LABEL, 2);
+		c.selector[i] = selector;
+		c.primitive[i] = -1;
+		c.instance[i] = -1;
+		c.depth[i] = 0.0; // labels have always sorted as at depth zero
+		c.fill[i] = color;
+		c.text[i] = text;
+		c.font[i] = font;
+		int k = c.vertStart[i];
+		c.xs[k] = anchor.x;
+		c.ys[k] = anchor.y;
+		c.xs[k + 1] = offset.x;
+		c.ys[k + 1] = offset.y;
+		c.vertCount[i] = 2;
+		int size = font.getSize();
+		c.xmin[i] = Math.min(anchor.x, offset.x - size / 4);
+		c.xmax[i] = Math.max(anchor.x, offset.x + text.length() * size + size
+				/ 4);
+		c.ymin[i] = Math.min(anchor.y, offset.y - size);
+		c.ymax[i] = Math.max(anchor.y, offset.y + size / 2);
+		return i;
+	}
+
+	/**
+	 * Append a run of elements from the previous generation to the current
+	 * generation
+	 * 
+	 * @param start
+	 *            index of first element in previous generation
+	 * @param end
+	 *            index after last element in previous generation
+	 */
+	public void copyPrevious(int start, int end) {
+		elements.copy(previousElements, start, end);
+	}
+
+	/**
+	 * Remove polygons that were left with no vertices, as for faces that
+	 * turned out to face away, from the current generation, closing up the
+	 * gaps. Only elements from an index on are examined.
+	 * 
+	 * @param from
+	 *            index of first element to examine
+	 * @param shift
+	 *            if not null, set to the number of elements removed before
+	 *            each index from 'from' to the end, inclusive, for adjusting
+	 *            indices of elements into the current generation; must be at
+	 *            least size() - from + 1 long
+	 */
+	public void removeEmptyPolygons(int from, int[] shift) {
+		Columns c = elements;
+		int count = c.count;
+		int removed = 0;
+		for (int i = from; i < count; i++) {
+			if (shift != null) {
+				shift[i - from] = removed;
+			}
+			if (c.kind[i] == POLYGON && c.vertCount[i] == 0) {
+				removed++;
+			} else if (removed > 0) {
+				c.move(i, i - removed);
+			}
+		}
+		if (shift != null) {
+			shift[count - from] = removed;
+		}
+		for (int i = count - removed; i < count; i++) {
+			c.selector[i] = null;
 		}
+		c.count -= removed;
 	}
 
 	public void setHighlighted(Selector[] selectors) {
 		highlightStringSelectors = selectors;
 	}
 
-	public void render(Graphics g) {
-		Iterator iterator = list.iterator();
-		while (iterator.hasNext()) {
-			render(g, (AbstractDisplayElement) iterator.next());
+	/**
+	 * Render elements
+	 * 
+	 * @param clip
+	 *            only elements intersecting this are rendered, or all if null
+	 */
+	public void render(Rasterizer r, Rectangle clip) {
+		prepareRender(r);
+		beginRender(r);
+		for (int i = 0, n = elements.count; i < n; i++) {
+			if (clip != null && !intersects(getRenderIndex(i), clip)) {
+				continue;
+			}
+			renderElement(r, i);
+		}
+	}
+
+	/**
+	 * Get ready to render elements one at a time with renderElement, which
+	 * may then be called from several threads at once, each with a
+	 * rasterizer like this one. A depth buffered layer is depth sorted
+	 * instead for rasterizers other than SoftwareRasterizer.
+	 */
+	public void prepareRender(Rasterizer r) {
+		depthBuffering = (visibility == Layer.DEPTH_BUFFER
+				&& r instanceof SoftwareRasterizer);
+		int wanted = ADDED_ORDER;
+		if (depthBuffering) {
+			wanted = LABELS_LAST_ORDER;
+		} else if (visibility != Layer.UNSORTED) {
+			wanted = DEPTH_ORDER;
+		}
+		if (wanted != ordering || !orderValid) {
+			setOrder(wanted);
 		}
 	}
 
-	private void render(Graphics g, AbstractDisplayElement element) {
-		if (toDepthSort && depthSortPending) {
-			list.sort(new DepthComparator(), SortableVector.SORT_ASCENDING);
-			depthSortPending = false;
+	/**
+	 * Begin rendering the layer's elements into the clip rectangle of a
+	 * rasterizer, after prepareRender
+	 */
+	public void beginRender(Rasterizer r) {
+		if (depthBuffering) {
+			((SoftwareRasterizer) r).clearDepth();
 		}
-		Selector selector = element.getPickInfo().getSelector();
+	}
+
+	/**
+	 * Get the index of an element by its position in rendering order
+	 */
+	public int getRenderIndex(int i) {
+		return (ordering != ADDED_ORDER) ? order[i] : i;
+	}
+
+	/**
+	 * Render the element at a position in rendering order
+	 */
+	public void renderElement(Rasterizer r, int i) {
+		Columns c = elements;
+		int e = (ordering != ADDED_ORDER) ? order[i] : i;
+		Selector selector = c.selector[e];
 		boolean highlight = (selector != null && toHighlight(selector));
-		element.render(g, highlight);
+		int k = c.vertStart[e];
+		if (c.kind[e] == POLYGON) {
+			int n = c.vertCount[e];
+			int fill = highlight ? c.highlightFill[e] : c.fill[e];
+			if (depthBuffering) {
+				SoftwareRasterizer sr = (SoftwareRasterizer) r;
+				sr.fillPolygon(c.xs, c.ys, c.zs, k, n, fill);
+				sr.drawPolygon(c.xs, c.ys, c.zs, k, n, c.edge[e]);
+				return;
+			}
+			r.fillPolygon(c.xs, c.ys, k, n, fill);
+			r.drawPolygon(c.xs, c.ys, k, n, c.edge[e]);
+		} else {
+			int rgb = highlight ? new Color(c.fill[e]).brighter().brighter()
+					.getRGB() : c.fill[e];
+			r.drawString(c.text[e], c.font[e], rgb, c.xs[k + 1], c.ys[k + 1]);
+			r.drawLine(c.xs[k], c.ys[k], c.xs[k + 1], c.ys[k + 1], rgb);
+		}
+	}
+
+	/*
+	 * Screen bounds of what an element draws, inclusive, or empty (xmin >
+	 * xmax) if unknown
+	 */
+
+	public int getXMin(int i) {
+		return elements.xmin[i];
+	}
+
+	public int getYMin(int i) {
+		return elements.ymin[i];
+	}
+
+	public int getXMax(int i) {
+		return elements.xmax[i];
+	}
+
+	public int getYMax(int i) {
+		return elements.ymax[i];
+	}
+
+	/**
+	 * Find out if an element's bounds intersect a rectangle, which they are
+	 * taken to if they are empty. Since Graphics outlines hang one pixel below
+	 * and to the right of their coordinates, the bounds are extended by one.
+	 */
+	private boolean intersects(int i, Rectangle r) {
+		Columns c = elements;
+		if (c.xmin[i] > c.xmax[i]) {
+			return true;
+		}
+		return (c.xmax[i] + 1 >= r.x && c.xmin[i] < r.x + r.width
+				&& c.ymax[i] + 1 >= r.y && c.ymin[i] < r.y + r.height);
+	}
+
+	/**
+	 * Find out if an element can be picked, so is worth indexing for picking
+	 */
+	boolean isPickable(int i) {
+		return elements.kind[i] == POLYGON; // cant pick text yet
+	}
+
+	/**
+	 * Even-odd crossing number test for whether a polygon element contains a
+	 * position, counting the edges crossed by a ray from the position in the
+	 * increasing x direction
+	 */
+	boolean tryPick(int e, Point2 pos) {
+		Columns c = elements;
+		int px = pos.x;
+		int py = pos.y;
+		if (c.kind[e] != POLYGON || px < c.xmin[e] || px > c.xmax[e]
+				|| py < c.ymin[e] || py > c.ymax[e]) {
+			return false;
+		}
+		int[] sx = c.xs;
+		int[] sy = c.ys;
+		int k = c.vertStart[e];
+		int n = c.vertCount[e];
+		boolean inside = false;
+		for (int i = k, j = k + n - 1; i < k + n; j = i++) {
+			int yi = sy[i];
+			int yj = sy[j];
+			if ((yi > py) != (yj > py)) {
+				double x = sx[i] + (double) (sx[j] - sx[i]) * (py - yi)
+						/ (yj - yi);
+				if (px < x) {
+					inside = !inside;
+				}
+			}
+		}
+		return inside;
+	}
+
+	/**
+	 * Put the elements into an order for rendering
+	 * 
+	 * @param ordering
+	 *            ADDED_ORDER, DEPTH_ORDER or LABELS_LAST_ORDER
+	 */
+	private void setOrder(int ordering) {
+		int count = elements.count;
+		if (order.length < count) {
+			order = new int[elements.depth.length];
+			sortedCount = 0;
+		}
+		if (ordering == DEPTH_ORDER) {
+			depthSort(count);
+		} else if (ordering == LABELS_LAST_ORDER) {
+			orderLabelsLast(count);
+		}
+		this.ordering = ordering;
+		orderValid = true;
+	}
+
+	/**
+	 * Sort into ascending order of depth, starting from the last order when
+	 * the number of elements has not changed
+	 */
+	private void depthSort(int count) {
+		sorter.sort(elements.depth, order, count, sortedCount == count
+				&& ordering == DEPTH_ORDER);
+		sortedCount = count;
+	}
+
+	/**
+	 * Order polygons as added, then labels as added, so that labels are
+	 * drawn over the depth buffered polygons
+	 */
+	private void orderLabelsLast(int count) {
+		byte[] kind = elements.kind;
+		int k = 0;
+		for (int i = 0; i < count; i++) {
+			if (kind[i] == POLYGON) {
+				order[k++] = i;
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			if (kind[i] != POLYGON) {
+				order[k++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Get the depth of a polygon element at the centre of a pixel
+	 */
+	double depthAt(int e, Point2 pos) {
+		Columns c = elements;
+		pickPlane.set(c.xs, c.ys, c.zs, c.vertStart[e], c.vertCount[e]);
+		return pickPlane.at(pos.x, pos.y);
 	}
 
 	private boolean toHighlight(Selector selector) {
-		if (highlightStringSelectors == null) {
+		return matches(selector, highlightStringSelectors);
+	}
+
+	private static boolean matches(Selector selector, Selector[] selectors) {
+		if (selectors == null) {
 			return false;
 		}
-		for (int i = 0; i < highlightStringSelectors.length; i++) {
-			if (selector.compare(highlightStringSelectors[i]) == 0) {
+		for (int i = 0; i < selectors.length; i++) {
+			if (selector.compare(selectors[i]) == 0) {
 				return true;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * Get the union of the bounds of elements with any of the given
+	 * selectors, extended by one pixel to the right and below for outlines
+	 * 
+	 * @param bounds
+	 *            bounds to add to, or null
+	 * @return the union, or null if bounds was null and nothing matched
+	 */
+	public Rectangle getBounds(Selector[] selectors, Rectangle bounds) {
+		if (selectors == null) {
+			return bounds;
+		}
+		Columns c = elements;
+		for (int i = 0; i < c.count; i++) {
+			Selector selector = c.selector[i];
+			if (selector == null || c.xmin[i] > c.xmax[i]
+					|| !matches(selector, selectors)) {
+				continue;
+			}
+			Rectangle r = new Rectangle(c.xmin[i], c.ymin[i], c.xmax[i]
+					- c.xmin[i] + 2, c.ymax[i] - c.ymin[i] + 2);
+			bounds = (bounds == null) ? r : bounds.union(r);
+		}
+		return bounds;
+	}
+
 	public PickInfo pick(Point2 pos) {
-		PickInfo id = null;
-		for (int i = list.size() - 1; i >= 0; i--) { // find closest pick
-			// first
-			if (((AbstractDisplayElement) list.elementAt(i)).tryPick(pos)) {
-				id = ((AbstractDisplayElement) list.elementAt(i)).getPickInfo();
-				if (id != null) {
-					return id;
+		boolean sorted = (visibility == Layer.DEPTH_SORT);
+		if (sorted && (ordering != DEPTH_ORDER || !orderValid)) {
+			setOrder(DEPTH_ORDER);
+		}
+		if (!pickGridValid) {
+			pickGrid.build(this, sorted ? order : null, elements.count);
+			pickGridValid = true;
+		}
+		int e;
+		if (visibility == Layer.DEPTH_BUFFER) {
+			e = pickGrid.pickNearest(this, pos);
+		} else {
+			e = pickGrid.pick(this, pos); // closest
+		}
+		if (e < 0) {
+			return null;
+		}
+		Selector selector = elements.selector[e];
+		int primitiveIndex = elements.primitive[e];
+		if (primitiveIndex < 0) {
+			return new PickInfo(selector);
+		}
+		int instanceIndex = elements.instance[e];
+		if (instanceIndex >= 0) {
+			return new PickInfo(selector, primitiveIndex, instanceIndex);
+		}
+		return new PickInfo(selector, primitiveIndex);
+	}
+
+	/**
+	 * The elements of one generation of a layer, as columns that grow
+	 * together
+	 */
+	private static class Columns {
+		Columns() {
+			allocate(INITIAL_ELEMENTS);
+			xs = new int[INITIAL_ELEMENTS * 5];
+			ys = new int[INITIAL_ELEMENTS * 5];
+			zs = new float[INITIAL_ELEMENTS * 5];
+		}
+
+		/**
+		 * Add an element with room for a number of vertices, with empty bounds
+		 * 
+		 * @return index of the element
+		 */
+		int add(byte elementKind, int maxVerts) {
+			if (count == kind.length) {
+				grow(count * 2);
+			}
+			if (vertTotal + maxVerts > xs.length) {
+				growVertices(vertTotal + maxVerts);
+			}
+			int i = count++;
+			kind[i] = elementKind;
+			depth[i] = 0.0;
+			vertStart[i] = vertTotal;
+			vertCount[i] = 0;
+			vertTotal += maxVerts;
+			xmin[i] = 0;
+			ymin[i] = 0;
+			xmax[i] = -1;
+			ymax[i] = -1;
+			return i;
+		}
+
+		/**
+		 * Append a run of elements of other columns, with just the vertices
+		 * they use
+		 */
+		void copy(Columns from, int start, int end) {
+			int n = end - start;
+			if (count + n > kind.length) {
+				grow(Math.max(count + n, count * 2));
+			}
+			int verts = 0;
+			for (int i = start; i < end; i++) {
+				verts += from.vertCount[i];
+			}
+			if (vertTotal + verts > xs.length) {
+				growVertices(vertTotal + verts);
+			}
+			System.arraycopy(from.kind, start, kind, count, n);
+			System.arraycopy(from.selector, start, selector, count, n);
+			System.arraycopy(from.primitive, start, primitive, count, n);
+			System.arraycopy(from.instance, start, instance, count, n);
+			System.arraycopy(from.depth, start, depth, count, n);
+			System.arraycopy(from.fill, start, fill, count, n);
+			System.arraycopy(from.highlightFill, start, highlightFill, count, n);
+			System.arraycopy(from.edge, start, edge, count, n);
+			System.arraycopy(from.vertCount, start, vertCount, count, n);
+			System.arraycopy(from.xmin, start, xmin, count, n);
+			System.arraycopy(from.ymin, start, ymin, count, n);
+			System.arraycopy(from.xmax, start, xmax, count, n);
+			System.arraycopy(from.ymax, start, ymax, count, n);
+			System.arraycopy(from.text, start, text, count, n);
+			System.arraycopy(from.font, start, font, count, n);
+			for (int i = start; i < end; i++) {
+				int k = from.vertStart[i];
+				int nv = from.vertCount[i];
+				vertStart[count++] = vertTotal;
+				for (int v = 0; v < nv; v++) {
+					xs[vertTotal] = from.xs[k + v];
+					ys[vertTotal] = from.ys[k + v];
+					zs[vertTotal++] = from.zs[k + v];
 				}
 			}
 		}
-		return null;
+
+		/**
+		 * Move an element to a lower index, keeping its vertices where they
+		 * are
+		 */
+		void move(int from, int to) {
+			kind[to] = kind[from];
+			selector[to] = selector[from];
+			primitive[to] = primitive[from];
+			instance[to] = instance[from];
+			depth[to] = depth[from];
+			fill[to] = fill[from];
+			highlightFill[to] = highlightFill[from];
+			edge[to] = edge[from];
+			vertStart[to] = vertStart[from];
+			vertCount[to] = vertCount[from];
+			xmin[to] = xmin[from];
+			ymin[to] = ymin[from];
+			xmax[to] = xmax[from];
+			ymax[to] = ymax[from];
+			text[to] = text[from];
+			font[to] = font[from];
+		}
+
+		/**
+		 * Forget the elements, keeping the columns
+		 */
+		void reset() {
+			count = 0;
+			vertTotal = 0;
+		}
+
+		/**
+		 * Forget the elements and what they refer to
+		 */
+		void clear() {
+			for (int i = 0; i < count; i++) {
+				selector[i] = null;
+				text[i] = null;
+				font[i] = null;
+			}
+			reset();
+		}
+
+		private void grow(int n) {
+			byte[] kind0 = kind;
+			Selector[] selector0 = selector;
+			int[] primitive0 = primitive;
+			int[] instance0 = instance;
+			double[] depth0 = depth;
+			int[] fill0 = fill;
+			int[] highlightFill0 = highlightFill;
+			int[] edge0 = edge;
+			int[] vertStart0 = vertStart;
+			int[] vertCount0 = vertCount;
+			int[] xmin0 = xmin;
+			int[] ymin0 = ymin;
+			int[] xmax0 = xmax;
+			int[] ymax0 = ymax;
+			String[] text0 = text;
+			Font[] font0 = font;
+			allocate(n);
+			System.arraycopy(kind0, 0, kind, 0, count);
+			System.arraycopy(selector0, 0, selector, 0, count);
+			System.arraycopy(primitive0, 0, primitive, 0, count);
+			System.arraycopy(instance0, 0, instance, 0, count);
+			System.arraycopy(depth0, 0, depth, 0, count);
+			System.arraycopy(fill0, 0, fill, 0, count);
+			System.arraycopy(highlightFill0, 0, highlightFill, 0, count);
+			System.arraycopy(edge0, 0, edge, 0, count);
+			System.arraycopy(vertStart0, 0, vertStart, 0, count);
+			System.arraycopy(vertCount0, 0, vertCount, 0, count);
+			System.arraycopy(xmin0, 0, xmin, 0, count);
+			System.arraycopy(ymin0, 0, ymin, 0, count);
+			System.arraycopy(xmax0, 0, xmax, 0, count);
+			System.arraycopy(ymax0, 0, ymax, 0, count);
+			System.arraycopy(text0, 0, text, 0, count);
+			System.arraycopy(font0, 0, font, 0, count);
+		}
+
+		private void allocate(int n) {
+			kind = new byte[n];
+			selector = new Selector[n];
+			primitive = new int[n];
+			instance = new int[n];
+			depth = new double[n];
+			fill = new int[n];
+			highlightFill = new int[n];
+			edge = new int[n];
+			vertStart = new int[n];
+			vertCount = new int[n];
+			xmin = new int[n];
+			ymin = new int[n];
+			xmax = new int[n];
+			ymax = new int[n];
+			text = new String[n];
+			font = new Font[n];
+		}
+
+		private void growVertices(int n) {
+			int size = Math.max(n, xs.length * 2);
+			int[] a = new int[size];
+			int[] b = new int[size];
+			float[] z = new float[size];
+			System.arraycopy(xs, 0, a, 0, vertTotal);
+			System.arraycopy(ys, 0, b, 0, vertTotal);
+			System.arraycopy(zs, 0, z, 0, vertTotal);
+			xs = a;
+			ys = b;
+			zs = z;
+		}
+
+		int count;
+
+		byte[] kind; // POLYGON or LABEL
+
+		Selector[] selector; // for picking and highlighting
+
+		int[] primitive; // index of face picked, or -1
+
+		int[] instance; // index of instance picked, or -1
+
+		double[] depth;
+
+		int[] fill; // packed 0xRRGGBB, color of a label
+
+		int[] highlightFill;
+
+		int[] edge;
+
+		int[] vertStart; // index of first vertex in xs and ys
+
+		int[] vertCount;
+
+		int[] xmin; // bounds
+
+		int[] ymin;
+
+		int[] xmax;
+
+		int[] ymax;
+
+		String[] text; // of labels
+
+		Font[] font;
+
+		int[] xs; // vertices of all elements
+
+		int[] ys;
+
+		float[] zs; // reciprocal of w, when depth buffered
+
+		int vertTotal; // number of entries of xs, ys and zs used
 	}
 
-	private boolean toDepthSort;
+	private static final byte POLYGON = 0;
 
-	private SortableVector list;
+	private static final byte LABEL = 1;
+
+	private static final int INITIAL_ELEMENTS = 1000;
+
+	/*
+	 * What order holds
+	 */
+
+	private static final int ADDED_ORDER = 0; // nothing, render as added
+
+	private static final int DEPTH_ORDER = 1;
+
+	private static final int LABELS_LAST_ORDER = 2;
+
+	private int visibility; // Layer.UNSORTED, DEPTH_SORT or DEPTH_BUFFER
+
+	private DepthSorter sorter;
+
+	private int[] order; // indices of elements in depth order
+
+	private int sortedCount; // number of elements order was last sorted for
+
+	private int ordering; // what order holds
+
+	private boolean orderValid; // false until ordered for this generation
+
+	private boolean depthBuffering; // rendering with a depth buffer
+
+	private PickGrid pickGrid; // built on first pick after layer changes
+
+	private final DepthPlane pickPlane = new DepthPlane();
+
+	private boolean pickGridValid;
+
+	private Columns elements; // current generation, in order added
+
+	private Columns previousElements; // previous generation
+
+	private int generation;
+
+	private int frameUsed; // last DisplayList frame that included this layer
 
 	private Selector[] highlightStringSelectors; // elements with these
 
 	// selectors get highlighted
 	// when rendered
-
-	private boolean depthSortPending;
 }
@@ -27,6 +27,7 @@ import java.awt.Panel;
 import java.awt.Image;
 import java.awt.Graphics;
 import java.awt.LayoutManager;
+import java.awt.Rectangle;
 
 class DoubleBufferedPanel extends Panel {
 	private int bufferWidth;
@@ -55,7 +56,16 @@ class DoubleBufferedPanel extends Panel {
 			resetBuffer();
 		}
 		if (bufferGraphics != null) {
-			bufferGraphics.clearRect(0, 0, bufferWidth, bufferHeight);
+			/*
+			 * Only the clip region is redrawn and blitted, which is all of the
+			 * panel unless a part of it was asked to be repainted
+			 */
+			Rectangle clip = g.getClipBounds();
+			if (clip == null) {
+				clip = new Rectangle(0, 0, bufferWidth, bufferHeight);
+			}
+			bufferGraphics.setClip(clip.x, clip.y, clip.width, clip.height);
+			bufferGraphics.clearRect(clip.x, clip.y, clip.width, clip.height);
 			paintBuffer(bufferGraphics);
 			g.drawImage(bufferImage, 0, 0, this);
 		}
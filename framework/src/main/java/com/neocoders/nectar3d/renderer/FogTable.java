@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import com.neocoders.nectar3d.common.Volume3;
+
+/**
+ * Blends packed 0xRRGGBB colors towards the background color with depth,
+ * looking up how far to blend in a table of factors by depth instead of
+ * dividing per face.
+ * <p>
+ * The depth range of the frustum is divided into RESOLUTION steps, and the
+ * factor (zmax - depth) / (depth - zmin) for each step is kept as a fixed
+ * point fraction of 256. Within the range a channel only ever moves towards
+ * the background where it is darker than the background. Depths outside the
+ * range, where the factor is not positive, are looked up in an entry at each
+ * end of the table, which leave darker channels alone and clamp brighter ones
+ * down to the background, as the per-face interpolation did.
+ * <p>
+ * The table is rebuilt only when the frustum depth range or background color
+ * changes.
+ */
+class FogTable {
+	public FogTable() {
+		zmin = 0.0;
+		zmax = 0.0;
+		bgColor = 0;
+		factors = new int[RESOLUTION + 2];
+	}
+
+	/**
+	 * Make the table fog with the frustum and background color of
+	 * SceneRendererParams, rebuilding it if they have changed
+	 * 
+	 * @return false if they are unchanged
+	 */
+	public boolean setParams(SceneRendererParams params) {
+		Volume3 volume = params.getFrustum();
+		int bg = params.getBackgroundColor().getRGB() & 0xffffff;
+		if (built && volume.zmin == zmin && volume.zmax == zmax && bg == bgColor) {
+			return false;
+		}
+		zmin = volume.zmin;
+		zmax = volume.zmax;
+		bgColor = bg;
+		scale = RESOLUTION / (zmax - zmin);
+		factors[0] = OUT_OF_RANGE; // beyond zmin
+		for (int i = 0; i < RESOLUTION; i++) {
+			double depth = zmin + (i + 0.5) / scale;
+			double factor = (zmax - depth) / (depth - zmin);
+			factors[i + 1] = (factor >= 1.0) ? 256 : (int) (factor * 256.0);
+		}
+		factors[RESOLUTION + 1] = OUT_OF_RANGE; // at or in front of zmax
+		built = true;
+		return true;
+	}
+
+	/**
+	 * Blend a color towards the background color with depth
+	 */
+	public int fog(int color, double depth) {
+		double step = (depth - zmin) * scale;
+		int f = factors[(step < 0.0) ? 0 : (step >= RESOLUTION) ? RESOLUTION + 1
+				: (int) step + 1];
+		return (blend(f, (color >> 16) & 0xff, (bgColor >> 16) & 0xff) << 16)
+				| (blend(f, (color >> 8) & 0xff, (bgColor >> 8) & 0xff) << 8)
+				| blend(f, color & 0xff, bgColor & 0xff);
+	}
+
+	private static int blend(int f, int c, int bg) {
+		if (c < bg) {
+			return (f > 0) ? c + (((bg - c) * f) >> 8) : c;
+		}
+		return (f == OUT_OF_RANGE) ? bg : c;
+	}
+
+	/** Steps across the depth range */
+	public final static int RESOLUTION = 1024;
+
+	private final static int OUT_OF_RANGE = -1; // factor not positive
+
+	private boolean built;
+
+	private double zmin;
+
+	private double zmax;
+
+	private double scale; // steps per unit depth
+
+	private int bgColor;
+
+	private final int[] factors; // factor for each step, with one at each end
+}
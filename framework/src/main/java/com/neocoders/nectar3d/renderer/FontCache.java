@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import java.awt.Font;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of fonts by family, style and point size, so that labels
+ * scaled for perspective share one Font for each size they are drawn at
+ * rather than creating one per label per frame. Sizes are already whole
+ * points. When full, the font used least recently is dropped.
+ * <p>
+ * Not thread safe; used by one DisplayListBuilder while it traverses.
+ */
+class FontCache {
+	/**
+	 * @param maxFonts
+	 *            most fonts to keep
+	 */
+	public FontCache(final int maxFonts) {
+		fonts = new LinkedHashMap(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > maxFonts;
+			}
+		};
+	}
+
+	/**
+	 * Get a font, creating it if it is not cached
+	 */
+	public Font get(String family, int style, int size) {
+		Key key = lookupKey;
+		key.set(family, style, size);
+		Font font = (Font) fonts.get(key);
+		if (font == null) {
+			font = new Font(family, style, size);
+			Key newKey = new Key();
+			newKey.set(family, style, size);
+			fonts.put(newKey, font);
+		}
+		return font;
+	}
+
+	public void clear() {
+		fonts.clear();
+	}
+
+	private static class Key {
+		void set(String family, int style, int size) {
+			this.family = family;
+			this.style = style;
+			this.size = size;
+		}
+
+		public boolean equals(Object o) {
+			Key k = (Key) o;
+			return k.size == size && k.style == style
+					&& k.family.equals(family);
+		}
+
+		public int hashCode() {
+			return (family.hashCode() * 31 + style) * 31 + size;
+		}
+
+		private String family;
+
+		private int style;
+
+		private int size;
+	}
+
+	private final LinkedHashMap fonts; // Font by Key, least recent first
+
+	private final Key lookupKey = new Key(); // reused for lookups
+}
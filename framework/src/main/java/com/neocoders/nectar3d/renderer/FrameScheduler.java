@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import java.awt.Component;
+
+import com.neocoders.nectar3d.scene.Animator;
+import com.neocoders.nectar3d.scene.SceneElement;
+
+/**
+ * Schedules repaints of a scene renderer component, so that frames are only
+ * rendered when something has changed, and at no more than a target rate.
+ * <p>
+ * A frame is scheduled when one is requested with requestFrame, which the
+ * scene renderers do when their scene, parameters or highlighting are set,
+ * and whenever the subtree stamp of the watched scene changes. Frames are
+ * also scheduled while the scene has live interpolators, so an animated
+ * scene keeps being rendered until its interpolators have destroyed
+ * themselves, after which the scheduler is idle until the scene is next
+ * modified or a frame is requested.
+ * <p>
+ * The scheduler runs on a daemon thread between start and stop, which the
+ * scene renderers call when they are added to and removed from a container.
+ * While idle, the thread only wakes once per frame interval to check the
+ * scene's subtree stamp.
+ * <p>
+ * While paused, as the scene renderers are while highlighting, modification
+ * of the scene does not schedule frames, but is caught up with by the first
+ * frame after the scheduler is resumed.
+ * <p>
+ * Frames are rendered by repainting the component, unless a frame task is
+ * set, as when frames are rendered on a RenderThread.
+ */
+public class FrameScheduler implements Runnable {
+	public FrameScheduler(Component component) {
+		this.component = component;
+		scene = null;
+		animator = null;
+		thread = null;
+		frameRequested = false;
+		framePending = false;
+		paused = false;
+		frameTask = null;
+		setTargetFPS(DEFAULT_TARGET_FPS);
+	}
+
+	/**
+	 * Set the maximum rate at which frames are rendered
+	 * 
+	 * @param fps
+	 *            frames per second, at least 1
+	 */
+	public synchronized void setTargetFPS(int fps) {
+		targetFPS = Math.max(1, fps);
+		frameInterval = 1000000000L / targetFPS;
+		notifyAll();
+	}
+
+	public synchronized int getTargetFPS() {
+		return targetFPS;
+	}
+
+	/**
+	 * Request a frame, which is rendered as soon as the target rate allows.
+	 * May be called from any thread.
+	 */
+	public synchronized void requestFrame() {
+		frameRequested = true;
+		notifyAll();
+	}
+
+	/**
+	 * Set the scene whose modification causes frames to be rendered
+	 * 
+	 * @param scene
+	 *            root of the scene, or null to watch nothing
+	 */
+	public synchronized void setScene(SceneElement scene) {
+		this.scene = scene;
+		if (scene != null) {
+			sceneStamp = scene.getSubtreeStamp();
+			animator = new Animator(scene);
+		} else {
+			animator = null;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Pause or resume watching the scene for modification. Requested frames
+	 * are still scheduled while paused.
+	 */
+	public synchronized void setPaused(boolean paused) {
+		this.paused = paused;
+		notifyAll();
+	}
+
+	public synchronized boolean isPaused() {
+		return paused;
+	}
+
+	/**
+	 * Have frames rendered by running a task instead of by repainting the
+	 * component
+	 * 
+	 * @param frameTask
+	 *            run on the scheduler's thread for each frame, so must not
+	 *            block, or null to repaint the component
+	 */
+	public synchronized void setFrameTask(Runnable frameTask) {
+		this.frameTask = frameTask;
+	}
+
+	/**
+	 * Notify the scheduler that a frame is being rendered, which the scene
+	 * renderers do before they start traversing the scene
+	 */
+	public synchronized void frameStarted() {
+		framePending = false;
+		if (scene != null && !paused) {
+			sceneStamp = scene.getSubtreeStamp();
+		}
+	}
+
+	/**
+	 * Find out if the scheduler has no frame to render, because none has
+	 * been requested, the scene has not changed since the last frame and
+	 * nothing is being animated
+	 */
+	public synchronized boolean isIdle() {
+		return !frameRequested && !framePending && !sceneChanged();
+	}
+
+	public synchronized void start() {
+		if (thread == null) {
+			thread = new Thread(this, "FrameScheduler");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public synchronized void stop() {
+		thread = null;
+		notifyAll();
+	}
+
+	public void run() {
+		Thread current = Thread.currentThread();
+		while (true) {
+			Runnable task;
+			synchronized (this) {
+				if (thread != current) {
+					return;
+				}
+				long now = System.nanoTime();
+				long wait = nextFrameTime - now;
+				if (wait <= 0) {
+					if (framePending && now - frameFiredTime < PENDING_TIMEOUT) {
+						wait = frameInterval; // still waiting for the last one
+					} else if (frameRequested || sceneChanged()) {
+						frameRequested = false;
+						framePending = true;
+						frameFiredTime = now;
+						nextFrameTime = now + frameInterval;
+					} else {
+						wait = frameInterval; // idle, check again later
+					}
+				}
+				if (wait > 0) {
+					try {
+						wait(wait / 1000000L, (int) (wait % 1000000L));
+					} catch (InterruptedException e) {
+						return;
+					}
+					continue;
+				}
+				task = frameTask;
+			}
+			if (task != null) {
+				task.run();
+			} else {
+				component.repaint();
+			}
+		}
+	}
+
+	private boolean sceneChanged() {
+		if (scene == null || paused) {
+			return false;
+		}
+		return (scene.getSubtreeStamp() != sceneStamp || animator.isAnimating());
+	}
+
+	public static final int DEFAULT_TARGET_FPS = 60;
+
+	private static final long PENDING_TIMEOUT = 1000000000L; // 1s
+
+	private Component component;
+
+	private SceneElement scene;
+
+	private long sceneStamp; // subtree stamp of scene at last frame
+
+	private Animator animator; // to find out if the scene is animated
+
+	private Thread thread;
+
+	private int targetFPS;
+
+	private long frameInterval; // nanoseconds
+
+	private long nextFrameTime; // earliest time for next frame
+
+	private long frameFiredTime;
+
+	private boolean frameRequested;
+
+	private boolean framePending; // repaint issued but not yet painted
+
+	private boolean paused;
+
+	private Runnable frameTask;
+}
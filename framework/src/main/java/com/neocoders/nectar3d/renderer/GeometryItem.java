@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import com.neocoders.nectar3d.common.Matrix;
+import com.neocoders.nectar3d.common.Point3;
+import com.neocoders.nectar3d.scene.Face;
+
+/**
+ * A Geometry element as found while traversing a scene graph, with the state
+ * of the traversal that it's display elements depend on, so that it can be
+ * processed by a GeometryProcessor once traversal is done, possibly on
+ * another thread. Items are re-used from frame to frame.
+ */
+class GeometryItem {
+	public Point3[] verts;
+
+	public Face[] faces;
+
+	/** Model to view matrix, copied since the builder's stack is re-used */
+	public final Matrix matrix = new Matrix();
+
+	public int fillColor; // packed 0xRRGGBB
+
+	public int highlightFillColor;
+
+	public int edgeColor;
+
+	public boolean shadingEnabled;
+
+	public boolean fogEnabled;
+
+	public ShadingTable shading; // for the lights of the environment
+
+	/** Layer holding a polygon for each face, to be filled in */
+	public DisplayListLayer layer;
+
+	/** Index in layer of the polygon for the first face */
+	public int start;
+
+	/** Drop references to the scene and display list */
+	public void clear() {
+		verts = null;
+		faces = null;
+		shading = null;
+		layer = null;
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import com.neocoders.nectar3d.common.Point3;
+import com.neocoders.nectar3d.common.Vector3;
+import com.neocoders.nectar3d.common.Volume3;
+import com.neocoders.nectar3d.common.Window2;
+
+/**
+ * Transforms the vertices of a GeometryItem and fills in the polygons that
+ * were added for it's faces: projection, near-plane clipping, back-face
+ * culling, shading and fog. Polygons for faces that turn out not to be
+ * visible are left with no vertices, to be removed from their layer.
+ * <p>
+ * All scratch storage is held by the processor, so no objects are allocated
+ * per vertex or per face, and separate processors may work on separate items
+ * concurrently.
+ */
+class GeometryProcessor {
+	public GeometryProcessor(SceneRendererParams params) {
+		setParams(params);
+	}
+
+	public void setParams(SceneRendererParams params) {
+		this.params = params;
+		Window2 window = params.getWindow();
+		Volume3 volume = params.getFrustum();
+		xVolToWinMap = ((double) window.xmax - (double) window.xmin)
+				/ (volume.xmax - volume.xmin);
+		yVolToWinMap = ((double) window.ymax - (double) window.ymin)
+				/ (volume.ymax - volume.ymin);
+		fog.setParams(params);
+	}
+
+	public SceneRendererParams getParams() {
+		return params;
+	}
+
+	public void process(GeometryItem item) {
+		Point3[] verts = item.verts;
+		int nVerts = verts.length;
+		double[] mc = tempMC;
+		for (int i = 0, k = 0; i < nVerts; i++, k += 3) {
+			Point3 vert = verts[i];
+			mc[k] = vert.x;
+			mc[k + 1] = vert.y;
+			mc[k + 2] = vert.z;
+		}
+		double[] vc = tempVC;
+		item.matrix.transform(mc, vc, nVerts);
+		boolean nearClip = false;
+		for (int k = 3; k < nVerts * 4; k += 4) {
+			if (vc[k] < NEAR_W) {
+				nearClip = true;
+				break;
+			}
+		}
+		mapToDisplay(vc, nVerts, tempSX, tempSY);
+		DisplayListLayer layer = item.layer;
+		for (int j = 0; j < item.faces.length; j++) {
+			int polygon = item.start + j;
+			int[] fverts = item.faces[j].verts;
+			if (!nearClip) {
+				fillFace(item, polygon, vc, fverts, fverts.length, tempSX,
+						tempSY);
+				continue;
+			}
+			int n = clipNear(vc, fverts);
+			if (n >= 3) {
+				mapToDisplay(tempClipVC, n, tempClipSX, tempClipSY);
+				fillFace(item, polygon, tempClipVC, tempClipIndex, n,
+						tempClipSX, tempClipSY);
+			} else {
+				layer.setNumVertices(polygon, 0);
+			}
+		}
+	}
+
+	/**
+	 * Fill in the polygon for a face, or leave it with no vertices if it faces
+	 * away
+	 * 
+	 * @param polygon
+	 *            index of the polygon in the item's layer
+	 * @param vc
+	 *            packed x, y, z, w view coordinates
+	 * @param fverts
+	 *            indices of the face's vertices in vc, sx and sy
+	 * @param n
+	 *            number of vertices
+	 * @param sx
+	 *            display coordinates
+	 */
+	private void fillFace(GeometryItem item, int polygon, double[] vc,
+			int[] fverts, int n, int[] sx, int[] sy) {
+		DisplayListLayer layer = item.layer;
+		Vector3 normal = getNormal(vc, fverts[0], fverts[1], fverts[2]);
+		double length = Vector3.length(normal);
+		if (normal.z / length <= 0.0) { // faces away
+			layer.setNumVertices(polygon, 0);
+			return;
+		}
+		double depth = Double.MAX_VALUE;
+		for (int k = 0; k < n; k++) {
+			double z = vc[(fverts[k] << 2) + 2];
+			if (z < depth) {
+				depth = z;
+			}
+		}
+		int fillColor = item.fillColor;
+		int edgeColor = item.edgeColor;
+		int highlightFillColor = item.highlightFillColor;
+		if (item.shadingEnabled) {
+			double nx = normal.x / length;
+			double ny = normal.y / length;
+			fillColor = item.shading.shade(fillColor, nx, ny);
+			highlightFillColor = item.shading.shade(highlightFillColor, nx, ny);
+		}
+		if (item.fogEnabled) {
+			fillColor = fog.fog(fillColor, depth);
+			edgeColor = fog.fog(edgeColor, depth);
+		}
+		layer.setPolygon(polygon, depth, fillColor, highlightFillColor,
+				edgeColor);
+		int[] psx = layer.getXs();
+		int[] psy = layer.getYs();
+		int o = layer.getVertexStart(polygon);
+		for (int k = 0; k < n; k++) {
+			psx[o + k] = sx[fverts[k]];
+			psy[o + k] = sy[fverts[k]];
+		}
+		if (layer.isDepthBuffered()) {
+			float[] psz = layer.getZs();
+			for (int k = 0; k < n; k++) {
+				psz[o + k] = (float) (1.0 / vc[(fverts[k] << 2) + 3]);
+			}
+		}
+		layer.setNumVertices(polygon, n);
+	}
+
+	/**
+	 * Clip a face against the near plane, w = NEAR_W, in homogeneous view
+	 * coordinates, leaving the vertices of the clipped face in tempClipVC
+	 * 
+	 * @return number of vertices of the clipped face
+	 */
+	private int clipNear(double[] vc, int[] fverts) {
+		int n = fverts.length;
+		if (tempClipIndex.length < n + 1) {
+			allocateClip(n + 1);
+		}
+		double[] out = tempClipVC;
+		int count = 0;
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			int a = fverts[j] << 2;
+			int b = fverts[i] << 2;
+			double da = vc[a + 3] - NEAR_W;
+			double db = vc[b + 3] - NEAR_W;
+			if ((da >= 0.0) != (db >= 0.0)) { // edge crosses the plane
+				double t = da / (da - db);
+				int o = count++ << 2;
+				for (int c = 0; c < 4; c++) {
+					out[o + c] = vc[a + c] + (t * (vc[b + c] - vc[a + c]));
+				}
+			}
+			if (db >= 0.0) {
+				int o = count++ << 2;
+				for (int c = 0; c < 4; c++) {
+					out[o + c] = vc[b + c];
+				}
+			}
+		}
+		return count;
+	}
+
+	private void allocateClip(int n) {
+		tempClipVC = new double[n * 4];
+		tempClipSX = new int[n];
+		tempClipSY = new int[n];
+		tempClipIndex = new int[n];
+		for (int i = 0; i < n; i++) {
+			tempClipIndex[i] = i;
+		}
+	}
+
+	/**
+	 * Map packed x, y, z, w view coordinates to display coordinates
+	 */
+	private void mapToDisplay(double[] vc, int nVerts, int[] sx, int[] sy) {
+		Window2 window = params.getWindow();
+		Volume3 volume = params.getFrustum();
+		for (int i = 0, k = 0; i < nVerts; i++, k += 4) {
+			double w = vc[k + 3];
+			sx[i] = window.xmin
+					+ (int) (((vc[k] / w) - volume.xmin) * xVolToWinMap);
+			sy[i] = window.ymin
+					+ (int) (((vc[k + 1] / w) - volume.ymin) * yVolToWinMap);
+		}
+	}
+
+	/**
+	 * Normal of the face through vertices a, b and c of packed x, y, z, w view
+	 * coordinates, with x and y in perspective
+	 * 
+	 * @return scratch vector that is overwritten by the next call
+	 */
+	private Vector3 getNormal(double[] vc, int a, int b, int c) {
+		a <<= 2;
+		b <<= 2;
+		c <<= 2;
+		double bx = vc[b] / vc[b + 3];
+		double by = vc[b + 1] / vc[b + 3];
+		double bz = vc[b + 2];
+		tempP.set((vc[c] / vc[c + 3]) - bx, (vc[c + 1] / vc[c + 3]) - by,
+				vc[c + 2] - bz);
+		tempQ.set((vc[a] / vc[a + 3]) - bx, (vc[a + 1] / vc[a + 3]) - by,
+				vc[a + 2] - bz);
+		Vector3.cross(tempP, tempQ, tempNormal);
+		return tempNormal;
+	}
+
+	/**
+	 * Blend a color towards the background color with depth
+	 */
+	public int foggedColor(int color, double depth) {
+		return fog.fog(color, depth);
+	}
+
+	/** Most vertices a geometry may have */
+	public final static int MAX_VERTEX = 400;
+
+	/** Near plane, just in front of the centre of projection where w is zero */
+	public final static double NEAR_W = 1.0e-3;
+
+	private SceneRendererParams params;
+
+	private double xVolToWinMap;
+
+	private double yVolToWinMap;
+
+	private final FogTable fog = new FogTable();
+
+	private final double[] tempMC = new double[MAX_VERTEX * 3]; // model
+	// coords, packed x, y, z
+
+	private final double[] tempVC = new double[MAX_VERTEX * 4]; // view coords,
+	// packed x, y, z, w
+
+	private final int[] tempSX = new int[MAX_VERTEX]; // display coords
+
+	private final int[] tempSY = new int[MAX_VERTEX];
+
+	private final Vector3 tempP = new Vector3(); // face normal scratch
+
+	private final Vector3 tempQ = new Vector3();
+
+	private final Vector3 tempNormal = new Vector3();
+
+	private double[] tempClipVC = new double[0]; // face clipped to near plane
+
+	private int[] tempClipSX = new int[0];
+
+	private int[] tempClipSY = new int[0];
+
+	private int[] tempClipIndex = new int[0]; // 0, 1, 2 ...
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+
+/**
+ * Rasterizer that draws through a java.awt.Graphics
+ */
+public class GraphicsRasterizer implements Rasterizer {
+	public GraphicsRasterizer() {
+		this.g = null;
+		this.color = null;
+		textCache = new TextImageCache(TextImageCache.DEFAULT_SIZE);
+	}
+
+	public GraphicsRasterizer(Graphics g) {
+		this();
+		setGraphics(g);
+	}
+
+	/**
+	 * Set how many images of text to keep for drawing labels again
+	 * 
+	 * @param maxImages
+	 *            most images to keep, or zero to draw text each time
+	 */
+	public void setTextCacheSize(int maxImages) {
+		textCache = (maxImages > 0) ? new TextImageCache(maxImages) : null;
+	}
+
+	/**
+	 * Set the graphics context to draw through
+	 *
+	 * @param g
+	 *            graphics context
+	 */
+	public void setGraphics(Graphics g) {
+		this.g = g;
+		this.color = null;
+	}
+
+	public Graphics getGraphics() {
+		return g;
+	}
+
+	public void fillPolygon(int[] xs, int[] ys, int n, int rgb) {
+		setColor(rgb);
+		g.fillPolygon(xs, ys, n);
+	}
+
+	public void drawPolygon(int[] xs, int[] ys, int n, int rgb) {
+		setColor(rgb);
+		g.drawPolygon(xs, ys, n);
+	}
+
+	/**
+	 * Graphics takes vertices from the start of its arrays, so these are
+	 * copied there first when they start at an offset
+	 */
+	public void fillPolygon(int[] xs, int[] ys, int offset, int n, int rgb) {
+		if (offset != 0) {
+			copyVertices(xs, ys, offset, n);
+			xs = tempXs;
+			ys = tempYs;
+		}
+		fillPolygon(xs, ys, n, rgb);
+	}
+
+	public void drawPolygon(int[] xs, int[] ys, int offset, int n, int rgb) {
+		if (offset != 0) {
+			copyVertices(xs, ys, offset, n);
+			xs = tempXs;
+			ys = tempYs;
+		}
+		drawPolygon(xs, ys, n, rgb);
+	}
+
+	private void copyVertices(int[] xs, int[] ys, int offset, int n) {
+		if (tempXs.length < n) {
+			tempXs = new int[n];
+			tempYs = new int[n];
+		}
+		System.arraycopy(xs, offset, tempXs, 0, n);
+		System.arraycopy(ys, offset, tempYs, 0, n);
+	}
+
+	public void drawLine(int x1, int y1, int x2, int y2, int rgb) {
+		setColor(rgb);
+		g.drawLine(x1, y1, x2, y2);
+	}
+
+	/**
+	 * Draws text from an image cached by a TextImageCache, unless caching is
+	 * turned off
+	 */
+	public void drawString(String text, Font font, int rgb, int x, int y) {
+		if (textCache != null) {
+			TextImageCache.TextImage t = textCache.get(text, font, rgb);
+			g.drawImage(t.image, x + t.x, y + t.y, null);
+			return;
+		}
+		setColor(rgb);
+		g.setFont(font);
+		g.drawString(text, x, y);
+	}
+
+	/**
+	 * Only creates a new Color when the color actually changes, which it
+	 * mostly doesn't between consecutive elements
+	 */
+	private void setColor(int rgb) {
+		if (color == null || this.rgb != rgb) {
+			this.rgb = rgb;
+			color = new Color(rgb);
+			g.setColor(color);
+		}
+	}
+
+	private Graphics g;
+
+	private Color color;
+
+	private int rgb;
+
+	private TextImageCache textCache; // null to draw text each time
+
+	private int[] tempXs = new int[8]; // vertices copied from an offset
+
+	private int[] tempYs = new int[8];
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+
+package com.neocoders.nectar3d.renderer;
+
+import java.awt.image.BufferedImage;
+
+import com.neocoders.nectar3d.common.ErrorHandler;
+import com.neocoders.nectar3d.common.Point2;
+import com.neocoders.nectar3d.common.Window2;
+import com.neocoders.nectar3d.scene.SceneElement;
+import com.neocoders.nectar3d.scene.Selector;
+
+/**
+ * Renders scene graphs to images on the calling thread, without an AWT or
+ * Swing component, a repaint loop or the event dispatch thread. Suitable for
+ * batch jobs and for running with java.awt.headless=true.
+ * <p>
+ * The image size is taken from the xmax and ymax of the window in the
+ * SceneRendererParams. Scene time is not advanced automatically; interpolators
+ * are updated with whatever time is set on the SceneRendererParams.
+ * <p>
+ * The image and all other buffers are kept between calls, so the image
+ * returned by render is overwritten by the next call; copy it if it needs to
+ * be kept.
+ */
+public class OffscreenSceneRenderer implements SceneRenderer {
+	public OffscreenSceneRenderer() {
+		this(new SceneRendererParams());
+	}
+
+	public OffscreenSceneRenderer(SceneRendererParams params) {
+		rendererParams = params;
+		renderer = new Renderer(params);
+		renderer.setErrorHandler(new ErrorHandler() {
+			public void handleError(String message) {
+				fire(new SceneRendererEvent(SceneRendererEvent.ERROR, message));
+			}
+		});
+		Window2 window = params.getWindow();
+		rasterizer = new SoftwareRasterizer(window.xmax, window.ymax);
+		scene = null;
+		listener = null;
+		state = STATE_STOPPED;
+	}
+
+	public void setListener(SceneRendererListener listener) {
+		this.listener = listener;
+	}
+
+	public void setParams(SceneRendererParams params) {
+		this.rendererParams = params;
+		renderer.setParams(params);
+		if (state == STATE_HIGHLIGHTING) {
+			state = STATE_RENDERING;
+		}
+	}
+
+	public void setScene(SceneElement scene) {
+		this.scene = scene;
+		state = STATE_RENDERING;
+	}
+
+	public void highlight(Selector[] selectors) {
+		if (state != STATE_RENDERING && state != STATE_HIGHLIGHTING) {
+			return;
+		}
+		renderer.highlight(selectors);
+		state = STATE_HIGHLIGHTING;
+	}
+
+	public void unHighlight() {
+		if (state != STATE_HIGHLIGHTING) {
+			return;
+		}
+		renderer.unHighlight();
+		state = STATE_RENDERING;
+	}
+
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * Render a scene graph to an image, first making it the current scene
+	 *
+	 * @param scene
+	 *            root of the scene graph
+	 * @return the rendered image, which is overwritten by the next call
+	 */
+	public BufferedImage render(SceneElement scene) {
+		setScene(scene);
+		return render();
+	}
+
+	/**
+	 * Render the current scene to an image. When highlighting, the image
+	 * last rendered is redrawn with the highlighted elements, as for the
+	 * component-based renderers.
+	 *
+	 * @return the rendered image, which is overwritten by the next call
+	 */
+	public BufferedImage render() {
+		Window2 window = rendererParams.getWindow();
+		rasterizer.setSize(window.xmax, window.ymax);
+		rasterizer.clear(rendererParams.getBackgroundColor().getRGB());
+		if (state == STATE_HIGHLIGHTING) {
+			renderer.reRender(rasterizer);
+		} else if (state == STATE_RENDERING) {
+			renderer.render(scene, rasterizer);
+		}
+		return rasterizer.getImage();
+	}
+
+	/**
+	 * Get the name of the nearest named element (on the decreasing Z axis)
+	 * that was rendered at the given image coordinate in the last render
+	 *
+	 * @param x
+	 *            image x-coordinate
+	 * @param y
+	 *            image y-coordinate
+	 * @return pick info, or null if nothing named was rendered there
+	 */
+	public PickInfo pick(int x, int y) {
+		return renderer.pick(new Point2(x, y));
+	}
+
+	private void fire(SceneRendererEvent event) {
+		if (listener != null) {
+			listener.handleSceneViewEvent(event);
+		}
+	}
+
+	private SceneElement scene;
+
+	private Renderer renderer;
+
+	private SoftwareRasterizer rasterizer;
+
+	private int state;
+
+	/** @supplierCardinality 1 */
+	private SceneRendererParams rendererParams;
+
+	/**
+	 * @clientCardinality 0..*
+	 * @supplierCardinality 1
+	 */
+	private SceneRendererListener listener;
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import com.neocoders.nectar3d.common.Point2;
+
+/**
+ * Uniform grid of screen-space cells, each listing the display elements whose
+ * bounds overlap it, so that a pick only tries the elements in the cell under
+ * the pick position.
+ * <p>
+ * The grid covers the union of the element bounds with at most GRID_MAX cells
+ * along each axis, using power-of-two cell sizes. Elements are listed in each
+ * cell in rendering order, so the cell is searched backwards to find the
+ * element rendered last, which is the nearest when the layer is depth sorted.
+ * For a layer drawn with a depth buffer, the whole cell is searched for the
+ * nearest element at the position instead.
+ */
+class PickGrid {
+	public PickGrid() {
+		cellStart = new int[1];
+		cellElements = new int[64];
+		cols = 0;
+		rows = 0;
+	}
+
+	/**
+	 * Build the grid
+	 * 
+	 * @param layer
+	 *            layer whose elements to index
+	 * @param order
+	 *            indices of elements in rendering order, or null to render in
+	 *            the order they were added
+	 * @param count
+	 *            number of elements
+	 */
+	public void build(DisplayListLayer layer, int[] order, int count) {
+		int xmin = Integer.MAX_VALUE;
+		int ymin = Integer.MAX_VALUE;
+		int xmax = Integer.MIN_VALUE;
+		int ymax = Integer.MIN_VALUE;
+		for (int i = 0; i < count; i++) {
+			if (!indexed(layer, i)) {
+				continue;
+			}
+			xmin = Math.min(xmin, clamp(layer.getXMin(i)));
+			ymin = Math.min(ymin, clamp(layer.getYMin(i)));
+			xmax = Math.max(xmax, clamp(layer.getXMax(i)));
+			ymax = Math.max(ymax, clamp(layer.getYMax(i)));
+		}
+		if (xmin > xmax) {
+			cols = 0;
+			rows = 0;
+			return;
+		}
+		shift = MIN_CELL_SHIFT;
+		while (((xmax - xmin) >> shift) >= GRID_MAX
+				|| ((ymax - ymin) >> shift) >= GRID_MAX) {
+			shift++;
+		}
+		originX = xmin;
+		originY = ymin;
+		cols = ((xmax - xmin) >> shift) + 1;
+		rows = ((ymax - ymin) >> shift) + 1;
+		int nCells = cols * rows;
+		if (cellStart.length < nCells + 1) {
+			cellStart = new int[nCells + 1];
+		}
+		for (int i = 0; i <= nCells; i++) {
+			cellStart[i] = 0;
+		}
+
+		/*
+		 * Count elements per cell, then lay the cells out end to end and fill
+		 * them in rendering order
+		 */
+
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			if (!indexed(layer, i)) {
+				continue;
+			}
+			int c0 = col(layer.getXMin(i));
+			int c1 = col(layer.getXMax(i));
+			int r0 = row(layer.getYMin(i));
+			int r1 = row(layer.getYMax(i));
+			for (int r = r0; r <= r1; r++) {
+				for (int c = c0; c <= c1; c++) {
+					cellStart[r * cols + c + 1]++;
+				}
+			}
+			total += (c1 - c0 + 1) * (r1 - r0 + 1);
+		}
+		for (int i = 1; i <= nCells; i++) {
+			cellStart[i] += cellStart[i - 1];
+		}
+		if (cellElements.length < total) {
+			cellElements = new int[total];
+		}
+		for (int i = 0; i < count; i++) {
+			int e = (order != null) ? order[i] : i;
+			if (!indexed(layer, e)) {
+				continue;
+			}
+			int c0 = col(layer.getXMin(e));
+			int c1 = col(layer.getXMax(e));
+			int r1 = row(layer.getYMax(e));
+			for (int r = row(layer.getYMin(e)); r <= r1; r++) {
+				for (int c = c0; c <= c1; c++) {
+					cellElements[cellStart[r * cols + c]++] = e;
+				}
+			}
+		}
+
+		/*
+		 * Filling advanced each start to the next cell's start, so shift back
+		 */
+
+		for (int i = nCells; i > 0; i--) {
+			cellStart[i] = cellStart[i - 1];
+		}
+		cellStart[0] = 0;
+	}
+
+	private static boolean indexed(DisplayListLayer layer, int i) {
+		return layer.getXMin(i) <= layer.getXMax(i)
+				&& layer.getYMin(i) <= layer.getYMax(i) && layer.isPickable(i);
+	}
+
+	/**
+	 * Find the element rendered last that contains a position
+	 * 
+	 * @param layer
+	 *            the layer the grid was built for
+	 * @return index of the element, or -1 if none contains the position
+	 */
+	public int pick(DisplayListLayer layer, Point2 pos) {
+		int cell = cellAt(pos);
+		if (cell < 0) {
+			return -1;
+		}
+		for (int i = cellStart[cell + 1] - 1; i >= cellStart[cell]; i--) {
+			int e = cellElements[i];
+			if (layer.tryPick(e, pos)) {
+				return e;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the polygon nearest at a position of those that contain it, for
+	 * layers drawn with a depth buffer
+	 * 
+	 * @param layer
+	 *            the layer the grid was built for
+	 * @return index of the element, or -1 if none contains the position
+	 */
+	public int pickNearest(DisplayListLayer layer, Point2 pos) {
+		int cell = cellAt(pos);
+		if (cell < 0) {
+			return -1;
+		}
+		int nearest = -1;
+		double nearestDepth = 0.0;
+		for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+			int e = cellElements[i];
+			if (layer.tryPick(e, pos)) {
+				double depth = layer.depthAt(e, pos);
+				if (nearest < 0 || depth > nearestDepth) { // larger is nearer
+					nearest = e;
+					nearestDepth = depth;
+				}
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Get the cell under a position
+	 * 
+	 * @return index of the cell, or -1 if the position is outside the grid
+	 */
+	private int cellAt(Point2 pos) {
+		int x = pos.x;
+		int y = pos.y;
+		if (cols == 0 || x < originX || y < originY) {
+			return -1;
+		}
+		int c = (x - originX) >> shift;
+		int r = (y - originY) >> shift;
+		if (c >= cols || r >= rows) {
+			return -1;
+		}
+		return r * cols + c;
+	}
+
+	private int col(int x) {
+		return (clamp(x) - originX) >> shift;
+	}
+
+	private int row(int y) {
+		return (clamp(y) - originY) >> shift;
+	}
+
+	private static int clamp(int v) {
+		return (v < -COORD_MAX) ? -COORD_MAX : (v > COORD_MAX) ? COORD_MAX : v;
+	}
+
+	private static final int GRID_MAX = 64; // cells along each axis
+
+	private static final int MIN_CELL_SHIFT = 4; // 16 pixel cells
+
+	private static final int COORD_MAX = 1 << 20;
+
+	private int[] cellStart; // index of first element of each cell
+
+	private int[] cellElements; // element indices
+
+	private int originX;
+
+	private int originY;
+
+	private int shift; // log2 of cell size
+
+	private int cols;
+
+	private int rows;
+}
@@ -29,7 +29,8 @@ import com.neocoders.nectar3d.scene.Selector;
  * identity of a picked scene element, and optionally the index of the primitive
  * within the element that was actually selected. The primitive index is useful
  * for specifying things like which face of a polyhedron was selected when a
- * polyhedron was picked, for example.
+ * polyhedron was picked, for example. When the element is an
+ * InstancedGeometry, the selection also specifies which instance was picked.
  */
 public class PickInfo {
 	/**
@@ -44,6 +45,18 @@ public class PickInfo {
 	public PickInfo(Selector selector, int primitiveIndex) {
 		this.selector = selector;
 		this.primitiveIndex = primitiveIndex;
+		this.instanceIndex = UNDEFINED_INDEX;
+	}
+
+	/**
+	 * Create pick information specifying the identity of the picked scene
+	 * element, the index of the primitive that was picked and the index of
+	 * the instance of InstancedGeometry it belongs to
+	 */
+	public PickInfo(Selector selector, int primitiveIndex, int instanceIndex) {
+		this.selector = selector;
+		this.primitiveIndex = primitiveIndex;
+		this.instanceIndex = instanceIndex;
 	}
 
 	/**
@@ -56,6 +69,7 @@ public class PickInfo {
 	public PickInfo(Selector selector) {
 		this.selector = selector;
 		this.primitiveIndex = UNDEFINED_INDEX;
+		this.instanceIndex = UNDEFINED_INDEX;
 	}
 
 	/**
@@ -77,9 +91,21 @@ public class PickInfo {
 		return primitiveIndex;
 	}
 
+	/**
+	 * Get index of the picked instance of InstancedGeometry. The index will be
+	 * UNDEFINED_INDEX if anything else was picked.
+	 * 
+	 * @return index of instance
+	 */
+	public int getInstanceIndex() {
+		return instanceIndex;
+	}
+
 	private Selector selector;
 
 	private int primitiveIndex;
 
+	private int instanceIndex;
+
 	private static final int UNDEFINED_INDEX = -1;
 }
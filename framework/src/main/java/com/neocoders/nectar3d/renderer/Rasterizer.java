@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import java.awt.Font;
+
+/**
+ * Raster backend that display list elements draw themselves with. Colors are
+ * given as packed 0xRRGGBB integers.
+ * <p>
+ * GraphicsRasterizer draws through a java.awt.Graphics, while
+ * SoftwareRasterizer scan-converts directly into the int[] raster of a
+ * BufferedImage and does not need an AWT component, so may be used when
+ * running with java.awt.headless=true.
+ */
+public interface Rasterizer {
+	/**
+	 * Fill a closed polygon
+	 *
+	 * @param xs
+	 *            x-coordinates of vertices
+	 * @param ys
+	 *            y-coordinates of vertices
+	 * @param n
+	 *            number of vertices
+	 * @param rgb
+	 *            fill color
+	 */
+	public void fillPolygon(int[] xs, int[] ys, int n, int rgb);
+
+	/**
+	 * Draw outline of a closed polygon
+	 *
+	 * @param xs
+	 *            x-coordinates of vertices
+	 * @param ys
+	 *            y-coordinates of vertices
+	 * @param n
+	 *            number of vertices
+	 * @param rgb
+	 *            edge color
+	 */
+	public void drawPolygon(int[] xs, int[] ys, int n, int rgb);
+
+	/**
+	 * Fill a closed polygon whose vertices start at an offset in the
+	 * coordinate arrays
+	 *
+	 * @param offset
+	 *            index in xs and ys of the first vertex
+	 */
+	public void fillPolygon(int[] xs, int[] ys, int offset, int n, int rgb);
+
+	/**
+	 * Draw outline of a closed polygon whose vertices start at an offset in
+	 * the coordinate arrays
+	 *
+	 * @param offset
+	 *            index in xs and ys of the first vertex
+	 */
+	public void drawPolygon(int[] xs, int[] ys, int offset, int n, int rgb);
+
+	public void drawLine(int x1, int y1, int x2, int y2, int rgb);
+
+	public void drawString(String text, Font font, int rgb, int x, int y);
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import com.neocoders.nectar3d.common.ErrorHandler;
+import com.neocoders.nectar3d.common.Point2;
+import com.neocoders.nectar3d.scene.SceneElement;
+import com.neocoders.nectar3d.scene.Animator;
+import com.neocoders.nectar3d.scene.SceneSnapshot;
+import com.neocoders.nectar3d.scene.Selector;
+
+/**
+ * Renders the frames of a scene renderer component on a thread of its own, so
+ * that the event dispatch thread only blits finished images and picks, and
+ * is not held up while the scene is traversed and rasterized.
+ * <p>
+ * Two Renderers, each with its own display list and SoftwareRasterizer, take
+ * turns. While the back one renders the next frame, the front one holds the
+ * last completed frame, whose image is blitted and whose display list is
+ * picked and highlighted. When a frame is complete the two are swapped and
+ * the component is repainted. Each Renderer retains what it can from the
+ * frame it rendered before, two frames ago.
+ * <p>
+ * Frames are rendered from snapshots of the scene published through a
+ * SceneSnapshot, so the scene is not locked while a frame is rendered. Before
+ * each frame the scene's Animator is updated and a new snapshot is
+ * committed, unless the scene is being written, in which case the last one is
+ * rendered again and another frame requested.
+ * <p>
+ * Frames are rendered when requested, which the component's FrameScheduler
+ * does instead of repainting the component. Requests made while a frame is
+ * being rendered are combined into one for the next frame. Errors are handled
+ * on the rendering thread.
+ */
+class RenderThread implements Runnable {
+	public RenderThread(Component component, FrameScheduler frameScheduler,
+			SceneRendererParams params, ErrorHandler errorHandler) {
+		this.component = component;
+		this.frameScheduler = frameScheduler;
+		this.errorHandler = errorHandler;
+		renderers = new Renderer[2];
+		rasterizers = new SoftwareRasterizer[2];
+		paramsApplied = new int[2];
+		for (int i = 0; i < 2; i++) {
+			renderers[i] = new Renderer(params);
+			renderers[i].setErrorHandler(errorHandler);
+			rasterizers[i] = new SoftwareRasterizer(1, 1);
+		}
+		lock = new Object();
+		front = 0;
+		frontValid = false;
+		highlighted = null;
+		snapshot = null;
+		animator = null;
+		thread = null;
+		frameRequested = false;
+		setParams(params);
+	}
+
+	/**
+	 * Set the scene to render from the next frame, and restart its time
+	 */
+	public synchronized void setScene(SceneElement scene) {
+		snapshot = (scene != null) ? new SceneSnapshot(scene) : null;
+		animator = (scene != null) ? new Animator(scene) : null;
+		timeSceneSet = System.currentTimeMillis();
+	}
+
+	/**
+	 * Set the params for the next frame, which are copied
+	 */
+	public synchronized void setParams(SceneRendererParams params) {
+		this.params = new SceneRendererParams(params);
+		paramsVersion++;
+	}
+
+	/**
+	 * Request a frame, which is rendered as soon as the last one is finished.
+	 * May be called from any thread.
+	 */
+	public synchronized void requestFrame() {
+		frameRequested = true;
+		notifyAll();
+	}
+
+	public synchronized void start() {
+		if (thread == null) {
+			thread = new Thread(this, "RenderThread");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public synchronized void stop() {
+		thread = null;
+		notifyAll();
+	}
+
+	public void run() {
+		Thread current = Thread.currentThread();
+		while (true) {
+			SceneSnapshot snapshot;
+			Animator animator;
+			SceneRendererParams params;
+			boolean applyParams;
+			synchronized (this) {
+				while (thread == current && !frameRequested) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (thread != current) {
+					return;
+				}
+				frameRequested = false;
+				snapshot = this.snapshot;
+				animator = this.animator;
+				params = this.params;
+				params.setTimeElapsed(System.currentTimeMillis()
+						- timeSceneSet);
+				applyParams = (paramsApplied[1 - front] != paramsVersion);
+				paramsApplied[1 - front] = paramsVersion;
+			}
+			frameScheduler.frameStarted();
+			if (snapshot != null) {
+				animator.update(params.getTimeElapsed());
+				if (!snapshot.tryCommit()) {
+					frameScheduler.requestFrame(); // try again later
+					if (snapshot.getLatest() == null) {
+						snapshot.commit(); // nothing to render yet
+					}
+				}
+				try {
+					renderFrame(snapshot.getLatest(), params, applyParams);
+				} catch (RuntimeException e) {
+					errorHandler.handleError(e.toString()); // and carry on
+				}
+			}
+		}
+	}
+
+	/**
+	 * Render a frame with the back Renderer, then swap it to the front
+	 */
+	private void renderFrame(SceneElement scene, SceneRendererParams params,
+			boolean applyParams) {
+		int back = 1 - front; // only this thread changes front
+		Renderer renderer = renderers[back];
+		SoftwareRasterizer r = rasterizers[back];
+		if (applyParams) {
+			renderer.setParams(params);
+		}
+		r.setSize(component.getWidth(), component.getHeight());
+		r.resetClip();
+		r.clear(params.getBackgroundColor().getRGB());
+		renderer.render(scene, r);
+		synchronized (lock) {
+			if (highlighted != null) {
+				redrawHighlighted(renderer, r, renderer.highlight(highlighted),
+						params.getBackgroundColor().getRGB());
+			}
+			front = back;
+			frontValid = true;
+			frontParams = params;
+		}
+		component.repaint();
+	}
+
+	private void redrawHighlighted(Renderer renderer, SoftwareRasterizer r,
+			Rectangle dirty, int background) {
+		if (dirty == null) {
+			return;
+		}
+		r.setClip(dirty.x, dirty.y, dirty.width, dirty.height);
+		r.clear(background);
+		renderer.reRender(r, dirty);
+		r.resetClip();
+	}
+
+	/**
+	 * Draw the last completed frame, or request one if there is none yet or
+	 * the component has been resized since
+	 */
+	public void paint(Graphics g) {
+		boolean stale;
+		synchronized (lock) {
+			BufferedImage image = rasterizers[front].getImage();
+			stale = !frontValid || image.getWidth() != component.getWidth()
+					|| image.getHeight() != component.getHeight();
+			if (frontValid) {
+				g.drawImage(image, 0, 0, null);
+			}
+		}
+		if (stale) {
+			requestFrame();
+		}
+	}
+
+	/**
+	 * Pick from the last completed frame
+	 */
+	public PickInfo pick(Point2 sc) {
+		synchronized (lock) {
+			return frontValid ? renderers[front].pick(sc) : null;
+		}
+	}
+
+	/**
+	 * Highlight elements of the last completed frame and of all frames
+	 * completed after it, until unhighlighted
+	 * 
+	 * @param selectors
+	 *            elements to highlight, or null for none
+	 * @return screen bounds of the elements whose highlighting changed in the
+	 *         last completed frame, or null if there are none
+	 */
+	public Rectangle highlight(Selector[] selectors) {
+		synchronized (lock) {
+			highlighted = selectors;
+			if (!frontValid) {
+				return null;
+			}
+			Renderer renderer = renderers[front];
+			Rectangle dirty = renderer.highlight(selectors);
+			redrawHighlighted(renderer, rasterizers[front], dirty, frontParams
+					.getBackgroundColor().getRGB());
+			return dirty;
+		}
+	}
+
+	private Component component;
+
+	private FrameScheduler frameScheduler;
+
+	private Renderer[] renderers;
+
+	private SoftwareRasterizer[] rasterizers;
+
+	private Object lock; // guards the front Renderer and rasterizer
+
+	private int front; // index of the Renderer with the last completed frame
+
+	private boolean frontValid; // whether a frame has been completed
+
+	private SceneRendererParams frontParams; // that frame was rendered with
+
+	private Selector[] highlighted;
+
+	private ErrorHandler errorHandler;
+
+	/*
+	 * Guarded by this
+	 */
+
+	private SceneSnapshot snapshot;
+
+	private Animator animator; // of the scene the snapshot is taken of
+
+	private long timeSceneSet;
+
+	private SceneRendererParams params;
+
+	private int paramsVersion;
+
+	private int[] paramsApplied; // version of params each Renderer has
+
+	private Thread thread;
+
+	private boolean frameRequested;
+}
@@ -23,10 +23,12 @@
 package com.neocoders.nectar3d.renderer;
 
 import java.awt.Graphics;
+import java.awt.Rectangle;
 
 import com.neocoders.nectar3d.common.ErrorHandler;
 import com.neocoders.nectar3d.common.Point2;
 
+import com.neocoders.nectar3d.scene.Animator;
 import com.neocoders.nectar3d.scene.SceneElement;
 import com.neocoders.nectar3d.scene.SceneIterator;
 
@@ -51,8 +53,10 @@ import com.neocoders.nectar3d.scene.Selector;
  * </ol>
  * The view volume and window are given to the constructor since these are not
  * expected to change. The current scene time is used for updating key frame
- * interpolators. Scene time should always advance forwards; note that results
- * are undetermined if scene time goes backwards.
+ * interpolators, which are updated through an Animator for the scene graph
+ * before it is traversed, unless it is a snapshot, whose original should be
+ * animated before the snapshot is taken. Scene time should always advance
+ * forwards; note that results are undetermined if scene time goes backwards.
  * <p>
  * <b>Error Handling</b>
  * <p>
@@ -100,6 +104,11 @@ class Renderer {
 	public Renderer(SceneRendererParams config) {
 		displayList = new DisplayList();
 		displayListBuilder = new DisplayListBuilder(config, displayList);
+		graphicsRasterizer = new GraphicsRasterizer();
+		tileRenderer = new TileRenderer(config);
+		sceneIterator = new SceneIterator();
+		sceneIterator.setReadOnly(true); // Animator writes before traversal
+		params = config;
 	}
 
 	/**
@@ -115,14 +124,38 @@ class Renderer {
 
 	public void setParams(SceneRendererParams config) {
 		displayListBuilder.setParams(config);
+		tileRenderer.setParams(config);
+		params = config;
 	}
 
-	public void highlight(Selector[] selectors) {
+	/**
+	 * Highlight elements of the last rendered image
+	 * 
+	 * @return screen bounds of the elements whose highlighting may have
+	 *         changed, which is all that needs to be re-rendered, or null if
+	 *         there are none
+	 */
+	public Rectangle highlight(Selector[] selectors) {
+		Rectangle dirty = displayList.getBounds(highlighted);
+		Rectangle bounds = displayList.getBounds(selectors);
+		if (dirty == null) {
+			dirty = bounds;
+		} else if (bounds != null) {
+			dirty = dirty.union(bounds);
+		}
 		displayList.setHighlighted(selectors);
+		highlighted = selectors;
+		return dirty;
 	}
 
-	public void unHighlight() {
-		displayList.setHighlighted(null);
+	/**
+	 * Stop highlighting elements of the last rendered image
+	 * 
+	 * @return screen bounds of the elements that were highlighted, or null if
+	 *         there were none
+	 */
+	public Rectangle unHighlight() {
+		return highlight(null);
 	}
 
 	/**
@@ -134,11 +167,55 @@ class Renderer {
 	 *            a graphics context with which to render scene elements
 	 */
 	public void render(SceneElement root, Graphics g) {
+		graphicsRasterizer.setGraphics(g);
+		render(root, graphicsRasterizer);
+	}
 
-		displayList.clear(); // layers are created by Layer elements
-		SceneIterator iterator = new SceneIterator();
-		iterator.iterate(root, displayListBuilder);
-		displayList.render(g);
+	/**
+	 * Render a scene graph through a raster backend.
+	 * 
+	 * @param root
+	 *            root element of the scene graph
+	 * @param r
+	 *            the raster backend to render scene elements with
+	 */
+	public void render(SceneElement root, Rasterizer r) {
+		render(root, r, null);
+	}
+
+	/**
+	 * Render a scene graph through a raster backend, drawing only the
+	 * elements that intersect a clip rectangle
+	 * 
+	 * @param clip
+	 *            the clip rectangle, or null to draw all elements
+	 */
+	public void render(SceneElement root, Rasterizer r, Rectangle clip) {
+		if (root != null && !root.isSnapshot()) {
+			if (animator == null || animator.getScene() != root) {
+				animator = new Animator(root);
+			}
+			animator.update(params.getTimeElapsed());
+		}
+		highlighted = null; // cleared by beginFrame
+		displayList.beginFrame(); // layers are created by Layer elements
+		displayListBuilder.beginFrame();
+		sceneIterator.iterate(root, displayListBuilder);
+		displayListBuilder.endFrame();
+		displayList.endFrame();
+		draw(r, clip);
+	}
+
+	/**
+	 * Draw the display list, in tiles on several threads when drawing into
+	 * the image of a SoftwareRasterizer and the params allow it
+	 */
+	private void draw(Rasterizer r, Rectangle clip) {
+		if (tileRenderer.isParallel() && r instanceof SoftwareRasterizer) {
+			tileRenderer.render(displayList, (SoftwareRasterizer) r, clip);
+		} else {
+			displayList.render(r, clip);
+		}
 	}
 
 	/**
@@ -166,11 +243,34 @@ class Renderer {
 	 *            a graphics context
 	 */
 	public void reRender(Graphics g) {
-		displayList.render(g);
+		graphicsRasterizer.setGraphics(g);
+		reRender(graphicsRasterizer, g.getClipBounds());
+	}
+
+	/**
+	 * Re-render image previously rendered, through a raster backend.
+	 * 
+	 * @param r
+	 *            the raster backend
+	 */
+	public void reRender(Rasterizer r) {
+		draw(r, null);
+	}
+
+	/**
+	 * Re-render only the elements of the image previously rendered that
+	 * intersect a clip rectangle, as when repainting after a highlight change
+	 * 
+	 * @param clip
+	 *            the clip rectangle, or null to re-render all elements
+	 */
+	public void reRender(Rasterizer r, Rectangle clip) {
+		draw(r, clip);
 	}
 
 	/** Clear the renderer. A subsequent call to reRender will render nothing. */
 	public void clear() {
+		highlighted = null;
 		displayListBuilder.reset();
 		displayList.clear(); // layers are created by Layer elements
 	}
@@ -186,4 +286,16 @@ class Renderer {
 	 * @clientCardinality 1
 	 */
 	private DisplayListBuilder displayListBuilder;
+
+	private GraphicsRasterizer graphicsRasterizer;
+
+	private TileRenderer tileRenderer;
+
+	private SceneIterator sceneIterator;
+
+	private SceneRendererParams params;
+
+	private Animator animator; // for the last scene graph rendered
+
+	private Selector[] highlighted;
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import com.neocoders.nectar3d.scene.Appearance;
+
+/**
+ * What a DisplayListBuilder remembers about the display elements it generated
+ * for the subtree of a scene element: the run of elements the subtree
+ * contributed to a generation of a display layer, and the stamps and state the
+ * subtree was traversed with. While the stamps and state are unchanged, the
+ * run can be copied into the next generation of the layer instead of
+ * traversing the subtree again.
+ */
+class RetainedEntry {
+	/** Layer the run of elements is in, null for a Layer element's entry */
+	public DisplayListLayer layer;
+
+	/** Generation of the layer the run of elements is in */
+	public int generation;
+
+	/** Index of first element of the run */
+	public int start;
+
+	/** Index after last element of the run */
+	public int end;
+
+	/** Subtree stamp of the element when it was traversed */
+	public long subtreeStamp;
+
+	/** Latest modification stamp of the element and it's ancestors */
+	public long contextStamp;
+
+	/** Version of the renderer parameters the subtree was traversed with */
+	public int paramsVersion;
+
+	/** Current appearance when traversal of the subtree began */
+	public Appearance entryAppearance;
+
+	/**
+	 * Modification stamp of that appearance, which may be a preceding sibling
+	 * and so is not covered by the subtree or context stamps
+	 */
+	public long entryAppearanceStamp;
+
+	/** Current appearance when traversal of the subtree ended */
+	public Appearance exitAppearance;
+
+	/** Frame in which the entry was last made or reused */
+	public int frameUsed;
+}
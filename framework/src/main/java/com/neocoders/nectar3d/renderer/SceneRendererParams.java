@@ -40,6 +40,7 @@ public class SceneRendererParams {
 		up = new Vector3(0.0, 1.0, 0.0);
 		timeElapsed = 0L;
 		backgroundColor = new Color(255, 255, 255);
+		parallelism = 1;
 	}
 
 	public SceneRendererParams(SceneRendererParams params) {
@@ -51,6 +52,7 @@ public class SceneRendererParams {
 		this.up = new Vector3(params.up);
 		this.timeElapsed = params.timeElapsed;
 		this.backgroundColor = params.backgroundColor;
+		this.parallelism = params.parallelism;
 	}
 
 	public void setFrustum(Volume3 frustum) {
@@ -117,6 +119,26 @@ public class SceneRendererParams {
 		return backgroundColor;
 	}
 
+	/**
+	 * Set the number of threads that geometry is processed on while display
+	 * lists are built. With more than one, the geometry of each layer is
+	 * transformed, shaded and fogged concurrently once the layer has been
+	 * traversed, which pays off for layers with many thousands of faces.
+	 * Display lists drawn into a SoftwareRasterizer are then also drawn in
+	 * tiles on that many threads.
+	 * 
+	 * @param parallelism
+	 *            number of threads, 1 to process geometry on the rendering
+	 *            thread as it is traversed
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
 	private Volume3 frustum;
 
 	private Point3 eye;
@@ -132,4 +154,6 @@ public class SceneRendererParams {
 	private long timeElapsed;
 
 	private Color backgroundColor;
+
+	private int parallelism;
 }
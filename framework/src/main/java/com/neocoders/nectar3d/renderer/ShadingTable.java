@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import java.awt.Color;
+
+import com.neocoders.nectar3d.common.Vector3;
+import com.neocoders.nectar3d.scene.Environment;
+import com.neocoders.nectar3d.scene.LightSource;
+
+/**
+ * Shades packed 0xRRGGBB colors by the light sources of an Environment,
+ * looking up what each light adds for a face normal in a table instead of
+ * computing it per face.
+ * <p>
+ * Only faces towards the viewer are shaded, whose unit normals have positive
+ * z, so a normal is quantized by its x and y to a cell of a RESOLUTION by
+ * RESOLUTION grid. For each cell and light the table holds the amounts the
+ * light adds to red, green and blue, as three signed 10-bit fields of an int,
+ * computed for the normal at the centre of the cell. As before, these are
+ * added light by light, clamping after each. Light directions are not
+ * normalized, so their length scales the light.
+ * <p>
+ * The table is rebuilt only when the lights differ from those it was last
+ * built for.
+ */
+class ShadingTable {
+	public ShadingTable() {
+		lightCount = 0;
+		lightData = new double[0];
+		offsets = new int[0];
+	}
+
+	/**
+	 * Make the table shade with the lights of an environment, rebuilding it
+	 * if they differ from the lights it was last built for
+	 * 
+	 * @return false if the lights are unchanged
+	 */
+	public boolean setLights(Environment environment) {
+		if (matches(environment)) {
+			return false;
+		}
+		int n = environment.getNumLightSources();
+		lightCount = n;
+		lightData = new double[n * 6];
+		for (int l = 0; l < n; l++) {
+			LightSource ls = environment.getLightSource(l);
+			Vector3 dir = ls.getDir();
+			Color c = ls.getColor();
+			lightData[l * 6] = dir.x;
+			lightData[l * 6 + 1] = dir.y;
+			lightData[l * 6 + 2] = dir.z;
+			lightData[l * 6 + 3] = c.getRed();
+			lightData[l * 6 + 4] = c.getGreen();
+			lightData[l * 6 + 5] = c.getBlue();
+		}
+		build();
+		return true;
+	}
+
+	/**
+	 * Find out if the table was built for the lights of an environment
+	 */
+	public boolean matches(Environment environment) {
+		int n = environment.getNumLightSources();
+		if (n != lightCount) {
+			return false;
+		}
+		for (int l = 0; l < n; l++) {
+			LightSource ls = environment.getLightSource(l);
+			Vector3 dir = ls.getDir();
+			Color c = ls.getColor();
+			if (lightData[l * 6] != dir.x || lightData[l * 6 + 1] != dir.y
+					|| lightData[l * 6 + 2] != dir.z
+					|| lightData[l * 6 + 3] != c.getRed()
+					|| lightData[l * 6 + 4] != c.getGreen()
+					|| lightData[l * 6 + 5] != c.getBlue()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void build() {
+		int n = lightCount;
+		offsets = new int[RESOLUTION * RESOLUTION * n];
+		double step = 2.0 / RESOLUTION;
+		for (int j = 0; j < RESOLUTION; j++) {
+			double ny = -1.0 + (j + 0.5) * step;
+			for (int i = 0; i < RESOLUTION; i++) {
+				double nx = -1.0 + (i + 0.5) * step;
+				double zz = 1.0 - nx * nx - ny * ny;
+				double nz = (zz > 0.0) ? Math.sqrt(zz) : 0.0;
+				int base = (j * RESOLUTION + i) * n;
+				for (int l = 0; l < n; l++) {
+					double[] d = lightData;
+					int k = l * 6;
+					double weight = nx * d[k] + ny * d[k + 1] + nz * d[k + 2];
+					offsets[base + l] = (pack((int) (d[k + 3] * weight)) << 20)
+							| (pack((int) (d[k + 4] * weight)) << 10)
+							| pack((int) (d[k + 5] * weight));
+				}
+			}
+		}
+	}
+
+	/** Signed 10-bit field, clamped to its range */
+	private static int pack(int v) {
+		v = (v < -512) ? -512 : (v > 511) ? 511 : v;
+		return v & 0x3ff;
+	}
+
+	/**
+	 * Shade a color for a unit face normal with positive z
+	 */
+	public int shade(int color, double nx, double ny) {
+		int n = lightCount;
+		if (n == 0) {
+			return color;
+		}
+		int i = (int) ((nx + 1.0) * (RESOLUTION / 2.0));
+		int j = (int) ((ny + 1.0) * (RESOLUTION / 2.0));
+		i = (i < 0) ? 0 : (i >= RESOLUTION) ? RESOLUTION - 1 : i;
+		j = (j < 0) ? 0 : (j >= RESOLUTION) ? RESOLUTION - 1 : j;
+		int base = (j * RESOLUTION + i) * n;
+		int red = (color >> 16) & 0xff;
+		int green = (color >> 8) & 0xff;
+		int blue = color & 0xff;
+		for (int l = 0; l < n; l++) {
+			int o = offsets[base + l];
+			red = clamp(red + ((o << 2) >> 22));
+			green = clamp(green + ((o << 12) >> 22));
+			blue = clamp(blue + ((o << 22) >> 22));
+		}
+		return (red << 16) | (green << 8) | blue;
+	}
+
+	private static int clamp(int v) {
+		return (v < 0) ? 0 : (v > 255) ? 255 : v;
+	}
+
+	/** Cells across each of x and y of the normal */
+	public final static int RESOLUTION = 128;
+
+	private int lightCount;
+
+	private double[] lightData; // direction and color of each light
+
+	private int[] offsets; // amounts added by each light in each cell
+}
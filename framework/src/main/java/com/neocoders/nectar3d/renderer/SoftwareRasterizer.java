@@ -0,0 +1,735 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Rasterizer that scan-converts polygons and lines directly into the int[]
+ * raster of a BufferedImage, bypassing the Java2D pipeline. Polygons are
+ * filled with the even-odd rule by walking their edges in 16.16 fixed-point,
+ * sampling at pixel centres. Text is copied from images cached by a
+ * TextImageCache, or if caching is turned off is drawn through a Graphics2D
+ * on the image. Needs no AWT component, so works with java.awt.headless=true.
+ * <p>
+ * Polygons may also be drawn with a depth buffer, one float per pixel of the
+ * reciprocal of w, which is allocated the first time it is cleared.
+ * <p>
+ * The image and all scratch storage are kept between frames and only
+ * reallocated when the size changes or a polygon with more vertices than seen
+ * before is filled.
+ */
+public class SoftwareRasterizer implements Rasterizer {
+	/**
+	 * Create new rasterizer with an image of the given size
+	 *
+	 * @param width
+	 *            image width in pixels
+	 * @param height
+	 *            image height in pixels
+	 */
+	public SoftwareRasterizer(int width, int height) {
+		image = null;
+		g2d = null;
+		textColor = null;
+		textCache = new TextImageCache(TextImageCache.DEFAULT_SIZE);
+		allocateEdges(16);
+		setSize(width, height);
+	}
+
+	/**
+	 * Resize the image. Does nothing if the size is unchanged, otherwise the
+	 * image is reallocated and it's contents are lost.
+	 *
+	 * @param width
+	 *            image width in pixels
+	 * @param height
+	 *            image height in pixels
+	 */
+	public void setSize(int width, int height) {
+		width = (width < 1) ? 1 : width;
+		height = (height < 1) ? 1 : height;
+		if (image != null && width == this.width && height == this.height) {
+			return;
+		}
+		disposeGraphics();
+		this.width = width;
+		this.height = height;
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		depthOwner = this;
+		depths = null;
+		resetClip();
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get the image that is rendered into
+	 *
+	 * @return the image
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Get the pixels of the image, one packed 0xRRGGBB int per pixel, row by
+	 * row
+	 *
+	 * @return the pixels
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Draw into the image of another rasterizer instead of this one's own, so
+	 * that several threads may each draw a different region of one image,
+	 * each with its own rasterizer. The depth buffer and text cache are
+	 * shared too. The clip is reset.
+	 * 
+	 * @param target
+	 *            the rasterizer whose image to draw into
+	 */
+	public void share(SoftwareRasterizer target) {
+		if (image != target.image) {
+			disposeGraphics();
+			image = target.image;
+			pixels = target.pixels;
+			width = target.width;
+			height = target.height;
+			depthOwner = target.depthOwner;
+			depths = null;
+		}
+		textCache = target.textCache;
+		resetClip();
+	}
+
+	/**
+	 * Set how many images of text to keep for drawing labels again
+	 * 
+	 * @param maxImages
+	 *            most images to keep, or zero to draw text each time
+	 */
+	public void setTextCacheSize(int maxImages) {
+		textCache = (maxImages > 0) ? new TextImageCache(maxImages) : null;
+	}
+
+	/**
+	 * Get the clip rectangle
+	 * 
+	 * @return a new rectangle
+	 */
+	public Rectangle getClipBounds() {
+		return new Rectangle(clipX0, clipY0, clipX1 - clipX0, clipY1 - clipY0);
+	}
+
+	/**
+	 * Restrict drawing to a rectangle, which is intersected with the image
+	 * bounds
+	 */
+	public void setClip(int x, int y, int w, int h) {
+		clipX0 = (x < 0) ? 0 : x;
+		clipY0 = (y < 0) ? 0 : y;
+		clipX1 = (x + w > width) ? width : x + w;
+		clipY1 = (y + h > height) ? height : y + h;
+		if (g2d != null) {
+			g2d.setClip(clipX0, clipY0, clipX1 - clipX0, clipY1 - clipY0);
+		}
+	}
+
+	/** Allow drawing over the whole image */
+	public void resetClip() {
+		setClip(0, 0, width, height);
+	}
+
+	/**
+	 * Fill the clip rectangle with a color
+	 *
+	 * @param rgb
+	 *            the color
+	 */
+	public void clear(int rgb) {
+		if (clipX0 == 0 && clipY0 == 0 && clipX1 == width && clipY1 == height) {
+			Arrays.fill(pixels, rgb);
+			return;
+		}
+		for (int y = clipY0; y < clipY1; y++) {
+			int row = y * width;
+			Arrays.fill(pixels, row + clipX0, row + clipX1, rgb);
+		}
+	}
+
+	/**
+	 * Set the depth buffer within the clip rectangle to be further than
+	 * anything, ready to draw polygons with depth
+	 */
+	public void clearDepth() {
+		float[] d = getDepths();
+		for (int y = clipY0; y < clipY1; y++) {
+			int row = y * width;
+			Arrays.fill(d, row + clipX0, row + clipX1, 0.0f);
+		}
+	}
+
+	/**
+	 * Get the depth buffer, which rasterizers sharing an image share with the
+	 * one that owns it
+	 */
+	private float[] getDepths() {
+		if (depths == null) {
+			depths = depthOwner.allocateDepths();
+		}
+		return depths;
+	}
+
+	private synchronized float[] allocateDepths() {
+		if (depths == null) {
+			depths = new float[width * height];
+		}
+		return depths;
+	}
+
+	public void fillPolygon(int[] xs, int[] ys, int n, int rgb) {
+		fillPolygon(xs, ys, 0, n, rgb);
+	}
+
+	/**
+	 * Fill a closed polygon only where it is nearer than the depth buffer,
+	 * and set the depth buffer there
+	 * 
+	 * @param zs
+	 *            depth of each vertex, the reciprocal of it's w view
+	 *            coordinate
+	 */
+	public void fillPolygon(int[] xs, int[] ys, float[] zs, int offset, int n,
+			int rgb) {
+		if (n < 3 || !depthPlane.set(xs, ys, zs, offset, n)) {
+			return;
+		}
+		depthFill = getDepths();
+		try {
+			fillPolygon(xs, ys, offset, n, rgb);
+		} finally {
+			depthFill = null;
+		}
+	}
+
+	/**
+	 * Draw outline of a closed polygon only where it is not behind the depth
+	 * buffer, allowing a pixel's worth of the depth slope for lines straying
+	 * from the polygon onto it's neighbours. The depth buffer is not set.
+	 * 
+	 * @param zs
+	 *            depth of each vertex, the reciprocal of it's w view
+	 *            coordinate
+	 */
+	public void drawPolygon(int[] xs, int[] ys, float[] zs, int offset, int n,
+			int rgb) {
+		depthPlane.set(xs, ys, zs, offset, n);
+		depthTolerance = Math.abs(depthPlane.getDzdx())
+				+ Math.abs(depthPlane.getDzdy());
+		depthTest = getDepths();
+		try {
+			drawPolygon(xs, ys, offset, n, rgb);
+		} finally {
+			depthTest = null;
+		}
+	}
+
+	public void fillPolygon(int[] xs, int[] ys, int offset, int n, int rgb) {
+		if (n < 3) {
+			return;
+		}
+		if (n > edgeTop.length) {
+			allocateEdges(n);
+		}
+		int nEdges = 0;
+		int ymin = Integer.MAX_VALUE;
+		int ymax = Integer.MIN_VALUE;
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			int x0 = clampCoord(xs[offset + j]);
+			int y0 = clampCoord(ys[offset + j]);
+			int x1 = clampCoord(xs[offset + i]);
+			int y1 = clampCoord(ys[offset + i]);
+			if (y0 == y1) {
+				continue; // horizontal edges cross no scanline centre
+			}
+			if (y0 > y1) {
+				int t = x0;
+				x0 = x1;
+				x1 = t;
+				t = y0;
+				y0 = y1;
+				y1 = t;
+			}
+			long slope = (((long) (x1 - x0)) << FIX_SHIFT) / (y1 - y0);
+			edgeTop[nEdges] = y0;
+			edgeBottom[nEdges] = y1;
+			edgeSlope[nEdges] = slope;
+			edgeX[nEdges] = (((long) x0) << FIX_SHIFT) + (slope >> 1);
+			if (y0 < ymin) {
+				ymin = y0;
+			}
+			if (y1 > ymax) {
+				ymax = y1;
+			}
+			nEdges++;
+		}
+		if (nEdges < 2) {
+			return;
+		}
+		int yStart = (ymin < clipY0) ? clipY0 : ymin;
+		int yEnd = (ymax > clipY1) ? clipY1 : ymax;
+		for (int e = 0; e < nEdges; e++) {
+			if (edgeTop[e] < yStart) { // skip scanlines above the clip
+				int skip = ((edgeBottom[e] < yStart) ? edgeBottom[e] : yStart)
+						- edgeTop[e];
+				edgeX[e] += edgeSlope[e] * skip;
+				edgeTop[e] += skip;
+			}
+		}
+		for (int y = yStart; y < yEnd; y++) {
+			int nCrossings = 0;
+			for (int e = 0; e < nEdges; e++) {
+				if (y >= edgeTop[e] && y < edgeBottom[e]) {
+					long x = edgeX[e];
+					int k = nCrossings++;
+					while (k > 0 && crossings[k - 1] > x) {
+						crossings[k] = crossings[k - 1];
+						k--;
+					}
+					crossings[k] = x;
+					edgeX[e] = x + edgeSlope[e];
+				}
+			}
+			int row = y * width;
+			for (int k = 0; k + 1 < nCrossings; k += 2) {
+				int xl = (int) ((crossings[k] + FIX_HALF_MINUS_ONE) >> FIX_SHIFT);
+				int xr = (int) ((crossings[k + 1] + FIX_HALF_MINUS_ONE) >> FIX_SHIFT);
+				if (xl < clipX0) {
+					xl = clipX0;
+				}
+				if (xr > clipX1) {
+					xr = clipX1;
+				}
+				if (depthFill != null) {
+					fillSpan(row, xl, xr, y, rgb);
+					continue;
+				}
+				for (int p = row + xl, end = row + xr; p < end; p++) {
+					pixels[p] = rgb;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fill the pixels of a span that are nearer than the depth buffer
+	 */
+	private void fillSpan(int row, int xl, int xr, int y, int rgb) {
+		float[] d = depthFill;
+		float z = (float) depthPlane.at(xl, y);
+		float dz = (float) depthPlane.getDzdx();
+		for (int p = row + xl, end = row + xr; p < end; p++, z += dz) {
+			if (z > d[p]) {
+				d[p] = z;
+				pixels[p] = rgb;
+			}
+		}
+	}
+
+	public void drawPolygon(int[] xs, int[] ys, int n, int rgb) {
+		drawPolygon(xs, ys, 0, n, rgb);
+	}
+
+	public void drawPolygon(int[] xs, int[] ys, int offset, int n, int rgb) {
+		for (int i = offset, j = offset + n - 1; i < offset + n; j = i++) {
+			drawLine(xs[j], ys[j], xs[i], ys[i], rgb);
+		}
+	}
+
+	public void drawLine(int x1, int y1, int x2, int y2, int rgb) {
+		if (x1 < clipX0 || x1 >= clipX1 || y1 < clipY0 || y1 >= clipY1
+				|| x2 < clipX0 || x2 >= clipX1 || y2 < clipY0 || y2 >= clipY1) {
+			drawClippedLine(x1, y1, x2, y2, rgb);
+			return;
+		}
+		if (depthTest != null) {
+			drawDepthLine(x1, y1, x2, y2, rgb);
+			return;
+		}
+		int dx = Math.abs(x2 - x1);
+		int dy = Math.abs(y2 - y1);
+		int sx = (x1 < x2) ? 1 : -1;
+		int sy = (y1 < y2) ? width : -width;
+		int p = y1 * width + x1;
+		if (dx >= dy) {
+			int err = dx >> 1;
+			for (int i = 0; i <= dx; i++) {
+				pixels[p] = rgb;
+				p += sx;
+				err -= dy;
+				if (err < 0) {
+					err += dx;
+					p += sy;
+				}
+			}
+		} else {
+			int err = dy >> 1;
+			for (int i = 0; i <= dy; i++) {
+				pixels[p] = rgb;
+				p += sy;
+				err -= dx;
+				if (err < 0) {
+					err += dy;
+					p += sx;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draw a line that lies within the clip rectangle, as drawLine does, only
+	 * where it is not behind the depth buffer by more than the tolerance,
+	 * stepping the depth of the polygon's plane along with the pixel
+	 */
+	private void drawDepthLine(int x1, int y1, int x2, int y2, int rgb) {
+		float[] d = depthTest;
+		int dx = Math.abs(x2 - x1);
+		int dy = Math.abs(y2 - y1);
+		int sx = (x1 < x2) ? 1 : -1;
+		int sy = (y1 < y2) ? width : -width;
+		double zx = (x1 < x2) ? depthPlane.getDzdx() : -depthPlane.getDzdx();
+		double zy = (y1 < y2) ? depthPlane.getDzdy() : -depthPlane.getDzdy();
+		double z = depthPlane.at(x1, y1) + depthTolerance;
+		int p = y1 * width + x1;
+		if (dx >= dy) {
+			int err = dx >> 1;
+			for (int i = 0; i <= dx; i++) {
+				if (z >= d[p]) {
+					pixels[p] = rgb;
+				}
+				p += sx;
+				z += zx;
+				err -= dy;
+				if (err < 0) {
+					err += dx;
+					p += sy;
+					z += zy;
+				}
+			}
+		} else {
+			int err = dy >> 1;
+			for (int i = 0; i <= dy; i++) {
+				if (z >= d[p]) {
+					pixels[p] = rgb;
+				}
+				p += sy;
+				z += zy;
+				err -= dx;
+				if (err < 0) {
+					err += dy;
+					p += sx;
+					z += zx;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draw the part of a line within the clip rectangle. The line is stepped
+	 * from its own end points, starting part way along, so that it covers
+	 * exactly the pixels it would unclipped, which lets a region be redrawn
+	 * without seams. Also tests the depth of each pixel of the outlines of
+	 * polygons drawn with depth.
+	 */
+	private void drawClippedLine(int x1, int y1, int x2, int y2, int rgb) {
+		if (!clipLine(x1, y1, x2, y2)) {
+			return;
+		}
+		int dx = Math.abs(x2 - x1);
+		int dy = Math.abs(y2 - y1);
+		int sx = (x1 < x2) ? 1 : -1;
+		int sy = (y1 < y2) ? 1 : -1;
+		int major = (dx >= dy) ? dx : dy;
+		int minor = (dx >= dy) ? dy : dx;
+		int first = (int) Math.floor(clipT0 * major) - 1; // allow for rounding
+		int last = (int) Math.ceil(clipT1 * major) + 1;
+		first = (first < 0) ? 0 : first;
+		last = (last > major) ? major : last;
+		/*
+		 * Number of minor steps taken, and the error term, after the first
+		 * major steps from (x1, y1)
+		 */
+		long steps = (major == 0) ? 0
+				: ((long) first * minor - (major >> 1) + major - 1) / major;
+		int err = (int) ((major >> 1) - (long) first * minor + steps * major);
+		int x;
+		int y;
+		if (dx >= dy) {
+			x = x1 + first * sx;
+			y = y1 + (int) steps * sy;
+		} else {
+			x = x1 + (int) steps * sx;
+			y = y1 + first * sy;
+		}
+		for (int i = first; i <= last; i++) {
+			if (x >= clipX0 && x < clipX1 && y >= clipY0 && y < clipY1) {
+				int p = y * width + x;
+				if (depthTest == null || depthPlane.at(x, y)
+						+ depthTolerance >= depthTest[p]) {
+					pixels[p] = rgb;
+				}
+			}
+			err -= minor;
+			if (dx >= dy) {
+				x += sx;
+				if (err < 0) {
+					err += major;
+					y += sy;
+				}
+			} else {
+				y += sy;
+				if (err < 0) {
+					err += major;
+					x += sx;
+				}
+			}
+		}
+	}
+
+	public void drawString(String text, Font font, int rgb, int x, int y) {
+		if (textCache != null) {
+			drawTextImage(textCache.get(text, font, rgb), x, y);
+			return;
+		}
+		if (g2d == null) {
+			g2d = image.createGraphics();
+			g2d.setClip(clipX0, clipY0, clipX1 - clipX0, clipY1 - clipY0);
+			textColor = null;
+		}
+		if (textColor == null || textRGB != rgb) {
+			textRGB = rgb;
+			textColor = new Color(rgb);
+			g2d.setColor(textColor);
+		}
+		g2d.setFont(font);
+		g2d.drawString(text, x, y);
+	}
+
+	/**
+	 * Copy the pixels of an image of text that are within the clip, blending
+	 * those that are partly covered
+	 */
+	private void drawTextImage(TextImageCache.TextImage t, int x, int y) {
+		int x0 = x + t.x;
+		int y0 = y + t.y;
+		int xs = Math.max(x0, clipX0);
+		int ys = Math.max(y0, clipY0);
+		int xe = Math.min(x0 + t.width, clipX1);
+		int ye = Math.min(y0 + t.height, clipY1);
+		int[] src = t.pixels;
+		for (int py = ys; py < ye; py++) {
+			int s = (py - y0) * t.width + (xs - x0);
+			int row = py * width;
+			for (int p = row + xs, end = row + xe; p < end; p++, s++) {
+				int argb = src[s];
+				int a = argb >>> 24;
+				if (a == 0xff) {
+					pixels[p] = argb & 0xffffff;
+				} else if (a != 0) {
+					pixels[p] = blend(pixels[p], argb, a);
+				}
+			}
+		}
+	}
+
+	private static int blend(int dst, int src, int a) {
+		int b = 0xff - a;
+		int red = (((src >> 16) & 0xff) * a + ((dst >> 16) & 0xff) * b) / 0xff;
+		int green = (((src >> 8) & 0xff) * a + ((dst >> 8) & 0xff) * b) / 0xff;
+		int blue = ((src & 0xff) * a + (dst & 0xff) * b) / 0xff;
+		return (red << 16) | (green << 8) | blue;
+	}
+
+	/** Release the Graphics2D used for drawing text, if any */
+	public void dispose() {
+		disposeGraphics();
+	}
+
+	private void disposeGraphics() {
+		if (g2d != null) {
+			g2d.dispose();
+			g2d = null;
+		}
+	}
+
+	/**
+	 * Liang-Barsky clip of a line to the clip rectangle grown by a pixel, as
+	 * stepped pixels may stray half a pixel from the line, the parameters of
+	 * the visible part left in clipT0 and clipT1
+	 *
+	 * @return false if the line lies entirely outside
+	 */
+	private boolean clipLine(int x1, int y1, int x2, int y2) {
+		double t0 = 0.0;
+		double t1 = 1.0;
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double[] p = clipP;
+		double[] q = clipQ;
+		p[0] = -dx;
+		q[0] = x1 - (clipX0 - 1);
+		p[1] = dx;
+		q[1] = clipX1 - x1;
+		p[2] = -dy;
+		q[2] = y1 - (clipY0 - 1);
+		p[3] = dy;
+		q[3] = clipY1 - y1;
+		for (int i = 0; i < 4; i++) {
+			if (p[i] == 0.0) {
+				if (q[i] < 0.0) {
+					return false;
+				}
+			} else {
+				double r = q[i] / p[i];
+				if (p[i] < 0.0) {
+					if (r > t1) {
+						return false;
+					}
+					if (r > t0) {
+						t0 = r;
+					}
+				} else {
+					if (r < t0) {
+						return false;
+					}
+					if (r < t1) {
+						t1 = r;
+					}
+				}
+			}
+		}
+		clipT0 = t0;
+		clipT1 = t1;
+		return true;
+	}
+
+	/**
+	 * Keep coordinates within a range where fixed-point edge arithmetic can't
+	 * overflow; only affects vertices very far off-screen
+	 */
+	private static int clampCoord(int v) {
+		return (v < -MAX_COORD) ? -MAX_COORD : (v > MAX_COORD) ? MAX_COORD : v;
+	}
+
+	private void allocateEdges(int n) {
+		edgeTop = new int[n];
+		edgeBottom = new int[n];
+		edgeX = new long[n];
+		edgeSlope = new long[n];
+		crossings = new long[n];
+	}
+
+	private static final int FIX_SHIFT = 16;
+
+	private static final long FIX_HALF_MINUS_ONE = (1L << (FIX_SHIFT - 1)) - 1L;
+
+	private static final int MAX_COORD = 1 << 20;
+
+	private int width;
+
+	private int height;
+
+	private BufferedImage image;
+
+	private int[] pixels;
+
+	private Graphics2D g2d; // only used for text
+
+	private Color textColor;
+
+	private int textRGB;
+
+	private TextImageCache textCache; // null to draw text each time
+
+	private int clipX0;
+
+	private int clipY0;
+
+	private int clipX1; // exclusive
+
+	private int clipY1; // exclusive
+
+	/*
+	 * Scratch storage for polygon edges, grown as needed
+	 */
+
+	private int[] edgeTop;
+
+	private int[] edgeBottom;
+
+	private long[] edgeX;
+
+	private long[] edgeSlope;
+
+	private long[] crossings;
+
+	/*
+	 * Depth buffer, and the plane of the polygon being drawn with depth
+	 */
+
+	private SoftwareRasterizer depthOwner; // whose depth buffer is used
+
+	private float[] depths; // null until first used
+
+	private final DepthPlane depthPlane = new DepthPlane();
+
+	private float[] depthFill; // depths while filling with depth
+
+	private float[] depthTest; // depths while outlining with depth
+
+	private double depthTolerance;
+
+	private double clipT0;
+
+	private double clipT1;
+
+	private final double[] clipP = new double[4];
+
+	private final double[] clipQ = new double[4];
+}
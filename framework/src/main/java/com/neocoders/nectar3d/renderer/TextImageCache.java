@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of text drawn into images, by text, font and color, so that
+ * labels drawn again are copied from an image instead of having their glyphs
+ * laid out and drawn again. When full, the image used least recently is
+ * dropped.
+ * <p>
+ * Text is drawn into an image just big enough for the pixels its glyphs
+ * cover, with the same default rendering hints as drawing straight onto an
+ * image, so copying it draws the same pixels. Safe for rasterizers on several
+ * threads to share.
+ */
+class TextImageCache {
+	/**
+	 * @param maxImages
+	 *            most images to keep
+	 */
+	public TextImageCache(final int maxImages) {
+		images = new LinkedHashMap(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > maxImages;
+			}
+		};
+		BufferedImage scratch = new BufferedImage(1, 1,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = scratch.createGraphics();
+		frc = g.getFontRenderContext();
+		g.dispose();
+	}
+
+	/**
+	 * Get the image of some text, drawing it if it is not cached
+	 * 
+	 * @param rgb
+	 *            packed 0xRRGGBB color of the text
+	 */
+	public synchronized TextImage get(String text, Font font, int rgb) {
+		Key key = lookupKey;
+		key.set(text, font, rgb);
+		TextImage image = (TextImage) images.get(key);
+		if (image == null) {
+			image = draw(text, font, rgb);
+			Key newKey = new Key();
+			newKey.set(text, font, rgb);
+			images.put(newKey, image);
+		}
+		return image;
+	}
+
+	public synchronized void clear() {
+		images.clear();
+	}
+
+	private TextImage draw(String text, Font font, int rgb) {
+		GlyphVector glyphs = font.createGlyphVector(frc, text);
+		Rectangle bounds = glyphs.getPixelBounds(frc, 0.0f, 0.0f);
+		bounds.grow(1, 1); // in case of rounding
+		TextImage t = new TextImage();
+		t.x = bounds.x;
+		t.y = bounds.y;
+		t.width = Math.max(bounds.width, 1);
+		t.height = Math.max(bounds.height, 1);
+		t.image = new BufferedImage(t.width, t.height,
+				BufferedImage.TYPE_INT_ARGB);
+		t.pixels = ((DataBufferInt) t.image.getRaster().getDataBuffer())
+				.getData();
+		Graphics2D g = t.image.createGraphics();
+		g.setColor(new Color(rgb));
+		g.setFont(font);
+		g.drawString(text, -bounds.x, -bounds.y);
+		g.dispose();
+		return t;
+	}
+
+	/**
+	 * Text drawn into an image, whose top left corner is at (x, y) relative
+	 * to the start of the text's baseline
+	 */
+	static class TextImage {
+		BufferedImage image;
+
+		int[] pixels; // packed 0xAARRGGBB, row by row
+
+		int x;
+
+		int y;
+
+		int width;
+
+		int height;
+	}
+
+	private static class Key {
+		void set(String text, Font font, int rgb) {
+			this.text = text;
+			this.font = font;
+			this.rgb = rgb;
+		}
+
+		public boolean equals(Object o) {
+			Key k = (Key) o;
+			return k.rgb == rgb && k.text.equals(text) && k.font.equals(font);
+		}
+
+		public int hashCode() {
+			return (text.hashCode() * 31 + font.hashCode()) * 31 + rgb;
+		}
+
+		private String text;
+
+		private Font font;
+
+		private int rgb;
+	}
+
+	/** Images kept when no other size is given */
+	public final static int DEFAULT_SIZE = 256;
+
+	private final LinkedHashMap images; // TextImage by Key, least recent first
+
+	private final Key lookupKey = new Key(); // reused for lookups
+
+	private final FontRenderContext frc;
+}
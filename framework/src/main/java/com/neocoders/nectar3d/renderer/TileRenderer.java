@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import java.awt.Rectangle;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders a display list into a SoftwareRasterizer on several threads.
+ * <p>
+ * The region to render is divided into square tiles, and each element is
+ * added to the bin of every tile its bounds overlap, layer by layer in
+ * rendering order, so each bin holds its elements in the order they would be
+ * painted. The tiles are then rendered concurrently into the one image, each
+ * by a SoftwareRasterizer clipped to the tile. A SoftwareRasterizer draws the
+ * same pixels whatever its clip, so the image is exactly what rendering the
+ * elements one after another would produce. Depth buffered layers share the
+ * depth buffer of the image, each tile clearing its part of it as it starts
+ * on each such layer.
+ */
+class TileRenderer {
+	public TileRenderer(SceneRendererParams params) {
+		bins = new int[0][];
+		binSizes = new int[0];
+		layers = new DisplayListLayer[4];
+		setParams(params);
+	}
+
+	/**
+	 * Create or discard the threads that tiles are rendered on, according to
+	 * the parallelism of the params
+	 */
+	public void setParams(SceneRendererParams params) {
+		int parallelism = params.getParallelism();
+		if (pool != null && pool.getParallelism() == parallelism) {
+			return;
+		}
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		if (parallelism > 1) {
+			pool = new ForkJoinPool(parallelism);
+		}
+	}
+
+	/**
+	 * Find out if tiles will be rendered on more than one thread
+	 */
+	public boolean isParallel() {
+		return pool != null;
+	}
+
+	/**
+	 * Render the elements of a display list that intersect a clip rectangle,
+	 * within the clip of the rasterizer
+	 * 
+	 * @param clip
+	 *            the clip rectangle, or null to render all elements
+	 */
+	public void render(DisplayList displayList, SoftwareRasterizer r,
+			Rectangle clip) {
+		Rectangle area = r.getClipBounds();
+		if (clip != null) {
+			area = area.intersection(clip);
+		}
+		if (area.isEmpty()) {
+			return;
+		}
+		tileX0 = area.x / TILE_SIZE;
+		tileY0 = area.y / TILE_SIZE;
+		tilesX = (area.x + area.width - 1) / TILE_SIZE - tileX0 + 1;
+		tilesY = (area.y + area.height - 1) / TILE_SIZE - tileY0 + 1;
+		if (pool == null || tilesX * tilesY < 2) {
+			displayList.render(r, clip);
+			return;
+		}
+		this.area = area;
+		target = r;
+		allocateBins(tilesX * tilesY);
+		binElements(displayList);
+		try {
+			pool.invoke(new TileTask(0, tilesX * tilesY));
+		} finally {
+			target = null;
+			for (int i = 0; i < layerCount; i++) {
+				layers[i] = null;
+			}
+		}
+	}
+
+	private void allocateBins(int nTiles) {
+		if (bins.length < nTiles) {
+			int[][] a = new int[nTiles][];
+			System.arraycopy(bins, 0, a, 0, bins.length);
+			for (int i = bins.length; i < nTiles; i++) {
+				a[i] = new int[64];
+			}
+			bins = a;
+			binSizes = new int[nTiles];
+		}
+		for (int i = 0; i < nTiles; i++) {
+			binSizes[i] = 0;
+		}
+	}
+
+	/**
+	 * Add elements to the bins of the tiles they overlap, as pairs of layer
+	 * number and position in the layer's rendering order
+	 */
+	private void binElements(DisplayList displayList) {
+		layerCount = displayList.getNumLayers();
+		if (layers.length < layerCount) {
+			layers = new DisplayListLayer[layerCount];
+		}
+		int ax0 = area.x;
+		int ay0 = area.y;
+		int ax1 = area.x + area.width - 1;
+		int ay1 = area.y + area.height - 1;
+		for (int l = 0; l < layerCount; l++) {
+			DisplayListLayer layer = displayList.layerAt(l);
+			layers[l] = layer;
+			layer.prepareRender(target);
+			for (int i = 0, n = layer.size(); i < n; i++) {
+				int e = layer.getRenderIndex(i);
+				int x0 = ax0;
+				int y0 = ay0;
+				int x1 = ax1;
+				int y1 = ay1;
+				if (layer.getXMin(e) <= layer.getXMax(e)) { // outlines hang
+					// one pixel
+					x0 = Math.max(x0, layer.getXMin(e));
+					y0 = Math.max(y0, layer.getYMin(e));
+					x1 = Math.min(x1, layer.getXMax(e) + 1);
+					y1 = Math.min(y1, layer.getYMax(e) + 1);
+					if (x0 > x1 || y0 > y1) {
+						continue;
+					}
+				}
+				int col0 = x0 / TILE_SIZE - tileX0;
+				int col1 = x1 / TILE_SIZE - tileX0;
+				int row1 = y1 / TILE_SIZE - tileY0;
+				for (int row = y0 / TILE_SIZE - tileY0; row <= row1; row++) {
+					for (int col = col0; col <= col1; col++) {
+						addToBin(row * tilesX + col, l, i);
+					}
+				}
+			}
+		}
+	}
+
+	private void addToBin(int tile, int layer, int element) {
+		int[] bin = bins[tile];
+		int size = binSizes[tile];
+		if (size + 2 > bin.length) {
+			int[] a = new int[bin.length * 2];
+			System.arraycopy(bin, 0, a, 0, size);
+			bins[tile] = bin = a;
+		}
+		bin[size] = layer;
+		bin[size + 1] = element;
+		binSizes[tile] = size + 2;
+	}
+
+	private void renderTile(SoftwareRasterizer r, int tile) {
+		int x = (tileX0 + tile % tilesX) * TILE_SIZE;
+		int y = (tileY0 + tile / tilesX) * TILE_SIZE;
+		int x0 = Math.max(x, area.x);
+		int y0 = Math.max(y, area.y);
+		int x1 = Math.min(x + TILE_SIZE, area.x + area.width);
+		int y1 = Math.min(y + TILE_SIZE, area.y + area.height);
+		r.share(target);
+		r.setClip(x0, y0, x1 - x0, y1 - y0);
+		int[] bin = bins[tile];
+		int layer = -1;
+		for (int i = 0, n = binSizes[tile]; i < n; i += 2) {
+			if (bin[i] != layer) {
+				layer = bin[i];
+				layers[layer].beginRender(r);
+			}
+			layers[layer].renderElement(r, bin[i + 1]);
+		}
+	}
+
+	/**
+	 * Renders a range of tiles, splitting it in two while there is more than
+	 * one tile
+	 */
+	private class TileTask extends RecursiveAction {
+		TileTask(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected void compute() {
+			if (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new TileTask(lo, mid), new TileTask(mid, hi));
+				return;
+			}
+			renderTile((SoftwareRasterizer) rasterizers.get(), lo);
+		}
+
+		private final int lo;
+
+		private final int hi;
+	}
+
+	private final static int TILE_SIZE = 64;
+
+	private ForkJoinPool pool; // null unless rendering in parallel
+
+	private final ThreadLocal rasterizers = new ThreadLocal() {
+		protected Object initialValue() {
+			return new SoftwareRasterizer(1, 1);
+		}
+	}; // SoftwareRasterizer for each thread of the pool to draw tiles with
+
+	private SoftwareRasterizer target; // rasterizer whose image is drawn into
+
+	private Rectangle area; // region being rendered
+
+	private int tileX0; // column and row of the first tile
+
+	private int tileY0;
+
+	private int tilesX; // columns and rows of tiles covering the area
+
+	private int tilesY;
+
+	private int[][] bins; // pairs of layer and element for each tile
+
+	private int[] binSizes;
+
+	private DisplayListLayer[] layers; // layers being rendered
+
+	private int layerCount;
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.scene;
+
+import java.util.Vector;
+
+/**
+ * Advances the live Interpolators of a scene graph in one pass, before the scene is traversed, so that the cost of
+ * animation depends only on how many interpolators are live and not on where they are in the scene graph, and so
+ * that traversals need not modify the scene as they go.
+ * <p>
+ * An Interpolator is live from when it is added to a parent until it is removed from it or destroys itself after
+ * it's last keyframe. The animator for a scene graph updates and reports on only the live interpolators within it,
+ * found by their ancestors when it is updated, so that renderers of other scene graphs, with their own scene times,
+ * do not move them, and an interpolator moved with it's subtree to another scene graph goes with it. Interpolators
+ * are updated whether or not the subtree they are in is visited by a traversal, so for example an interpolator
+ * under a Switch carries on while another child is selected.
+ * <p>
+ * Renderers update an animator for their scene with the current scene time before each frame, and while
+ * isAnimating reports that interpolators are live they keep rendering frames, even when those are waiting out a
+ * time delay before their first keyframe and so do not modify the scene. When nothing is animating, renderers may
+ * go idle until the scene is next modified.
+ */
+public class Animator {
+    /**
+     * Creates an animator for the interpolators within a scene graph
+     * @param scene root of the scene graph, which need not be the root of all of the scene graph it is in
+     */
+    public Animator(SceneElement scene) {
+        this.scene = scene;
+        updating = new Interpolator[16];
+    }
+
+    /**
+     * Gets the root of the scene graph whose interpolators are animated
+     * @return root of the scene graph
+     */
+    public SceneElement getScene() {
+        return scene;
+    }
+
+    /**
+     * Updates each live interpolator within the scene graph with the given scene time, taking the write lock on
+     * the scene graph once for all of them. Interpolators that pass their last keyframe are destroyed and
+     * garbage-collected, so that their observers are notified before this returns.
+     * @param instant the current scene time in milliseconds
+     */
+    public void update(long instant) {
+        if (live.isEmpty()) {
+            return;
+        }
+        SceneLock lock = SceneElement.getSceneLock();
+        lock.lockWrite();
+        try {
+            int n;
+            synchronized (live) {
+                n = live.size();
+                if (updating.length < n) {
+                    updating = new Interpolator[n * 2];
+                }
+                live.copyInto(updating);
+            }
+            for (int i = 0; i < n; i++) {
+                if (isInScene(updating[i])) {
+                    updating[i].interpolate(instant);
+                }
+                updating[i] = null;
+            }
+            SceneElement.garbageCollect();
+        } finally {
+            lock.unlockWrite();
+        }
+    }
+
+    /**
+     * Finds out if any interpolators within the scene graph are live. Does not wait for the scene graph to be
+     * written, but reports that it is animating if it is.
+     * @return true if there are live interpolators in the scene graph, else false
+     */
+    public boolean isAnimating() {
+        if (live.isEmpty()) {
+            return false;
+        }
+        SceneLock lock = SceneElement.getSceneLock();
+        if (!lock.tryLockRead()) {
+            return true; // may be, so dont go idle
+        }
+        try {
+            return getNumInterpolators() > 0;
+        } finally {
+            lock.unlockRead();
+        }
+    }
+
+    /**
+     * Gets the number of live interpolators within the scene graph. The caller must hold at least the read lock on
+     * the scene graph.
+     * @return number of live interpolators
+     */
+    public int getNumInterpolators() {
+        int count = 0;
+        synchronized (live) {
+            for (int i = 0; i < live.size(); i++) {
+                if (isInScene((Interpolator)live.elementAt(i))) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private boolean isInScene(Interpolator interpolator) {
+        for (SceneElement e = interpolator; e != null; e = e.getParent()) {
+            if (e == scene) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void add(Interpolator interpolator) {
+        live.addElement(interpolator);
+    }
+
+    static void remove(Interpolator interpolator) {
+        live.removeElement(interpolator);
+    }
+
+    private SceneElement scene;
+    private Interpolator[] updating; // copy of live interpolators, which may be removed while updated; write locked
+    private static Vector live = new Vector(); // interpolators with parents, in all scene graphs
+}
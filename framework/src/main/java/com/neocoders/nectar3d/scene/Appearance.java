@@ -69,6 +69,7 @@ public class Appearance extends SceneElement {
      */
     public void setFillColor(Color color) {
         this.fillColor = color;
+        invalidate();
     }
 
     /**
@@ -85,6 +86,7 @@ public class Appearance extends SceneElement {
      */
     public void setEdgeColor(Color color) {
         this.edgeColor = color;
+        invalidate();
     }
 
     /**
@@ -101,6 +103,7 @@ public class Appearance extends SceneElement {
      */
     public void setHighlightFillColor(Color color) {
         this.highlightFillColor = color;
+        invalidate();
     }
 
     /**
@@ -117,6 +120,7 @@ public class Appearance extends SceneElement {
      */
     public void setHighlightEdgeColor(Color color) {
         this.edgeColor = color;
+        invalidate();
     }
 
     /**
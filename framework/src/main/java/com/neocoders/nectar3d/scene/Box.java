@@ -25,21 +25,23 @@ package com.neocoders.nectar3d.scene;
 import com.neocoders.nectar3d.common.Point3;
 import com.neocoders.nectar3d.common.Vector3;
 
-/////////////////////////////////////////////
-// Optimize this to use common static storage
-/////////////////////////////////////////////
-
+/**
+ * A box centred on the origin. All boxes share the one Mesh of a box from -1 to 1 along each axis, which each scales to
+ * it's own dimensions.
+ */
 public class Box extends Geometry {
     /**Create new box of required dimensions
      */
     public Box(double xSize, double ySize, double zSize) {
-        super(new Point3[vertexData.length], new Face[6]);
-        for (int i = 0; i < verts.length; i++) {
-            verts[i] = new Point3(vertexData[i].x * xSize, vertexData[i].y * ySize, vertexData[i].z * zSize);
-        }
-        for (int i = 0; i < 6; i++) {
-            faces[i] = new Face(polyData[i]);
-        }
+        super(UNIT_MESH, xSize, ySize, zSize);
+    }
+
+    /**
+     * Get the mesh shared by all boxes
+     * @return box from -1 to 1 along each axis
+     */
+    public static Mesh getUnitMesh() {
+        return UNIT_MESH;
     }
 
     /** Vertices */
@@ -57,6 +59,10 @@ public class Box extends Geometry {
     private final static int[] [] polyData =
         { { 0,1,2,3 },  { 0, 3, 7, 4 }, { 0,4,5,1 }, { 1,5,6,2 }, { 2,6,7,3 }, { 5,4,7,6 }};
 
+    private static final Mesh UNIT_MESH = new Mesh(vertexData, new Face[] {
+            new Face(polyData[0]), new Face(polyData[1]), new Face(polyData[2]),
+            new Face(polyData[3]), new Face(polyData[4]), new Face(polyData[5])});
+
     /** ID for each face */
     public final static int XMIN_FACE_INDEX = 3;
     public final static int YMIN_FACE_INDEX = 4;
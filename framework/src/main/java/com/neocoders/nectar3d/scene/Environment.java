@@ -53,12 +53,18 @@ public class Environment extends SceneElement {
         visitor.postOrderVisitEnvironment(this);
     }
 
+    protected void initSnapshot() {
+        super.initSnapshot();
+        lightSources = new Vector(lightSources);
+    }
+
     /**
      *Add a light source
      * @param lightSource new light source for scene root
      */
     public void addLightSource(LightSource lightSource) {
         lightSources.addElement(lightSource);
+        invalidate();
     }
 
 
@@ -70,6 +76,23 @@ public class Environment extends SceneElement {
         return lightSources.iterator();
     }
 
+    /**
+     * Get number of light sources
+     * @return number of light sources
+     */
+    public int getNumLightSources() {
+        return lightSources.size();
+    }
+
+    /**
+     * Get a light source by index, in order of addition
+     * @param i index of light source
+     * @return the light source
+     */
+    public LightSource getLightSource(int i) {
+        return (LightSource)lightSources.elementAt(i);
+    }
+
     private Vector lightSources;
 
     /**
@@ -22,12 +22,16 @@
  */
 package com.neocoders.nectar3d.scene;
 
+import com.neocoders.nectar3d.common.Bounds3;
 import com.neocoders.nectar3d.common.Point3;
 import com.neocoders.nectar3d.common.Vector3;
 
 import java.awt.Color;
 
-/** A list of vertices and a list of faces */
+/**
+ * A list of vertices and a list of faces. These are either the geometry's own, which may be modified in place, or those
+ * of a Mesh shared with other geometry, scaled by the geometry's own factors.
+ */
 public class Geometry extends SceneElement {
     /**
      *Creates new geometry with given vertices and faces
@@ -38,6 +42,31 @@ public class Geometry extends SceneElement {
         super();
         this.verts = verts;
         this.faces = faces;
+        mesh = null;
+        xScale = yScale = zScale = 1.0;
+    }
+
+    /**
+     * Creates new geometry that shares the vertices and faces of a mesh
+     * @param mesh the mesh
+     */
+    public Geometry(Mesh mesh) {
+        this(mesh, 1.0, 1.0, 1.0);
+    }
+
+    /**
+     * Creates new geometry that shares the vertices and faces of a mesh, scaling them along each axis before they are
+     * transformed
+     * @param mesh the mesh
+     */
+    public Geometry(Mesh mesh, double xScale, double yScale, double zScale) {
+        super();
+        this.mesh = mesh;
+        this.verts = mesh.getVertices();
+        this.faces = mesh.getFaces();
+        this.xScale = xScale;
+        this.yScale = yScale;
+        this.zScale = zScale;
     }
 
     /**
@@ -57,7 +86,36 @@ public class Geometry extends SceneElement {
     }
 
     /**
-     *Get the vertices
+     * Includes the vertices in the bounds. Call invalidate after modifying the vertices in place
+     * so that the bounds are recomputed.
+     * @param bounds empty bounds to grow
+     */
+    protected void computeBounds(Bounds3 bounds) {
+        if (mesh != null) {
+            mesh.includeIn(bounds, xScale, yScale, zScale);
+        } else {
+            for (int i = 0; i < verts.length; i++) {
+                bounds.include(verts[i].x, verts[i].y, verts[i].z);
+            }
+        }
+        super.computeBounds(bounds);
+    }
+
+    /** Gives a snapshot copy it's own vertices, unless they are those of a mesh, which can't change. Faces are shared. */
+    protected void initSnapshot() {
+        super.initSnapshot();
+        if (mesh != null) {
+            return;
+        }
+        Point3[] copies = new Point3[verts.length];
+        for (int i = 0; i < verts.length; i++) {
+            copies[i] = new Point3(verts[i]);
+        }
+        verts = copies;
+    }
+
+    /**
+     *Get the vertices, unscaled. Those of a mesh must not be modified.
      * @return the vertices
      */
     public Point3[] getVertices() {
@@ -72,7 +130,43 @@ public class Geometry extends SceneElement {
         return faces;
     }
 
+    /**
+     * Get the mesh whose vertices and faces are shared
+     * @return the mesh, or null if the vertices and faces are the geometry's own
+     */
+    public Mesh getMesh() {
+        return mesh;
+    }
+
+    /**
+     * Find out if the vertices are scaled before they are transformed
+     * @return true if any scale factor is not 1
+     */
+    public boolean isScaled() {
+        return xScale != 1.0 || yScale != 1.0 || zScale != 1.0;
+    }
+
+    public double getXScale() {
+        return xScale;
+    }
+
+    public double getYScale() {
+        return yScale;
+    }
+
+    public double getZScale() {
+        return zScale;
+    }
+
     protected Point3[] verts;
 
     protected Face[] faces;
+
+    private final Mesh mesh; // null unless verts and faces are shared
+
+    private final double xScale;
+
+    private final double yScale;
+
+    private final double zScale;
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.scene;
+
+import java.awt.Color;
+
+import com.neocoders.nectar3d.common.Bounds3;
+import com.neocoders.nectar3d.common.Matrix;
+
+/**
+ * Many copies of one Mesh, each with it's own translation, rotation, scale, fill color and selector, held in
+ * primitive arrays rather than as a TransformGroup, Name, Geometry and Appearance for each copy.<br>
+ * <br>
+ * Each instance is scaled, then rotated about the x, y and z axes in turn, by angles in degrees, then translated.
+ * An instance's fill color replaces that of the current Appearance, whose other colors still apply; an instance
+ * without one is filled with the Appearance's fill color. An instance's selector names it for picking and
+ * highlighting; an instance without one takes the selector of the enclosing Name. Faces of instances are picked
+ * with the index of the instance as well as that of the face.<br>
+ * <br>
+ * The matrix of each instance is composed from it's transforms when first needed after they change.
+ */
+public class InstancedGeometry extends SceneElement {
+    /**
+     * Creates new instanced geometry with no instances
+     * @param mesh the mesh that each instance is a copy of
+     */
+    public InstancedGeometry(Mesh mesh) {
+        super();
+        this.mesh = mesh;
+        count = 0;
+        allocate(16);
+    }
+
+    /**
+     * Accept scene graph visitor before it visits sub-elements
+     * @param visitor the scene graph visitor
+     */
+    public void acceptPreOrderVisitor(SceneVisitor visitor) {
+        visitor.preOrderVisitInstancedGeometry(this);
+    }
+
+    /**
+     * Accept scene graph visitor after it has visited sub-elements
+     * @param visitor the scene graph visitor
+     */
+    public void acceptPostOrderVisitor(SceneVisitor visitor) {
+        visitor.postOrderVisitInstancedGeometry(this);
+    }
+
+    /**
+     * Gets the mesh that each instance is a copy of
+     * @return the mesh
+     */
+    public Mesh getMesh() {
+        return mesh;
+    }
+
+    /**
+     * Adds an instance at a position, unrotated and unscaled, with no fill color or selector of it's own
+     * @return index of the new instance
+     */
+    public int addInstance(double x, double y, double z) {
+        if (count == fillColors.length) {
+            grow(count * 2);
+        }
+        int i = count;
+        setTransform(translations, i, x, y, z);
+        setTransform(rotations, i, 0.0, 0.0, 0.0);
+        setTransform(scales, i, 1.0, 1.0, 1.0);
+        fillColors[i] = NO_COLOR;
+        selectors[i] = null;
+        matrixValid[i] = false;
+        count++;
+        invalidate();
+        return i;
+    }
+
+    /**
+     * Removes all instances
+     */
+    public void clearInstances() {
+        for (int i = 0; i < count; i++) {
+            selectors[i] = null;
+        }
+        count = 0;
+        invalidate();
+    }
+
+    /**
+     * Gets the number of instances
+     * @return number of instances
+     */
+    public int getNumInstances() {
+        return count;
+    }
+
+    public void setTranslation(int i, double x, double y, double z) {
+        setTransform(translations, checkIndex(i), x, y, z);
+        matrixValid[i] = false;
+        invalidate();
+    }
+
+    /**
+     * Sets the rotations of an instance about each axis
+     * @param i index of the instance
+     * @param x rotation about the x axis in degrees
+     */
+    public void setRotation(int i, double x, double y, double z) {
+        setTransform(rotations, checkIndex(i), x, y, z);
+        matrixValid[i] = false;
+        invalidate();
+    }
+
+    public void setScale(int i, double x, double y, double z) {
+        setTransform(scales, checkIndex(i), x, y, z);
+        matrixValid[i] = false;
+        invalidate();
+    }
+
+    /**
+     * Gets a translation, rotation or scale of an instance
+     * @param i index of the instance
+     * @param attrID one of TransformGroup's attribute IDs, eg. TransformGroup.TRAX_VAL
+     * @return value of the attribute
+     */
+    public double getAttribute(int i, int attrID) {
+        checkIndex(i);
+        switch (attrID) {
+            case TransformGroup.ROTX_VAL:
+            case TransformGroup.ROTY_VAL:
+            case TransformGroup.ROTZ_VAL:
+                return rotations[i * 3 + attrID - TransformGroup.ROTX_VAL];
+            case TransformGroup.SCAX_VAL:
+            case TransformGroup.SCAY_VAL:
+            case TransformGroup.SCAZ_VAL:
+                return scales[i * 3 + attrID - TransformGroup.SCAX_VAL];
+            case TransformGroup.TRAX_VAL:
+            case TransformGroup.TRAY_VAL:
+            case TransformGroup.TRAZ_VAL:
+                return translations[i * 3 + attrID - TransformGroup.TRAX_VAL];
+        }
+        throw new IllegalArgumentException("unknown attribute ID: " + attrID);
+    }
+
+    /**
+     * Sets the fill color of an instance
+     * @param i index of the instance
+     * @param color the fill color, or null to fill with that of the current Appearance
+     */
+    public void setFillColor(int i, Color color) {
+        fillColors[checkIndex(i)] = (color == null) ? NO_COLOR : (color.getRGB() & 0xffffff);
+        invalidate();
+    }
+
+    /**
+     * Gets the fill color of an instance
+     * @param i index of the instance
+     * @return packed 0xRRGGBB color, or NO_COLOR if the instance has none of it's own
+     */
+    public int getFillColor(int i) {
+        return fillColors[checkIndex(i)];
+    }
+
+    /**
+     * Sets the selector that names an instance for picking and highlighting
+     * @param i index of the instance
+     * @param selector the selector, or null to take that of the enclosing Name
+     */
+    public void setSelector(int i, Selector selector) {
+        selectors[checkIndex(i)] = selector;
+        invalidate();
+    }
+
+    public Selector getSelector(int i) {
+        return selectors[checkIndex(i)];
+    }
+
+    /**
+     * Gets the matrices of the instances, composing those whose transforms have changed
+     * @return sixteen elements for each instance, as for Matrix.set(double[], int), which must not be modified
+     */
+    public synchronized double[] getInstanceMatrices() {
+        for (int i = 0; i < count; i++) {
+            if (!matrixValid[i]) {
+                composeMatrix(i);
+            }
+        }
+        return matrices;
+    }
+
+    private void composeMatrix(int i) {
+        Matrix m = tempMatrix;
+        int k = i * 3;
+        m.identity();
+        m.scale(scales[k], scales[k + 1], scales[k + 2]);
+        m.rotateX(rotations[k]);
+        m.rotateY(rotations[k + 1]);
+        m.rotateZ(rotations[k + 2]);
+        m.translate(translations[k], translations[k + 1], translations[k + 2]);
+        m.copyTo(matrices, i * 16);
+        matrixValid[i] = true;
+    }
+
+    /**
+     * Includes the mesh, as transformed for each instance, in the bounds
+     * @param bounds empty bounds to grow
+     */
+    protected void computeBounds(Bounds3 bounds) {
+        double[] m = getInstanceMatrices();
+        Matrix matrix = new Matrix();
+        for (int i = 0; i < count; i++) {
+            matrix.set(m, i * 16);
+            bounds.include(mesh.getBounds(), matrix);
+        }
+        super.computeBounds(bounds);
+    }
+
+    /** Gives a snapshot copy it's own instance arrays. The mesh is shared. */
+    protected void initSnapshot() {
+        super.initSnapshot();
+        InstancedGeometry original = (InstancedGeometry)getOriginal();
+        synchronized (original) {
+            allocate(Math.max(count, 1));
+            System.arraycopy(original.translations, 0, translations, 0, count * 3);
+            System.arraycopy(original.rotations, 0, rotations, 0, count * 3);
+            System.arraycopy(original.scales, 0, scales, 0, count * 3);
+            System.arraycopy(original.fillColors, 0, fillColors, 0, count);
+            System.arraycopy(original.selectors, 0, selectors, 0, count);
+            System.arraycopy(original.matrices, 0, matrices, 0, count * 16);
+            System.arraycopy(original.matrixValid, 0, matrixValid, 0, count);
+        }
+    }
+
+    private int checkIndex(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("instance index (" + i + ") out of range (0.." + (count - 1) + ")");
+        }
+        return i;
+    }
+
+    private static void setTransform(double[] a, int i, double x, double y, double z) {
+        a[i * 3] = x;
+        a[i * 3 + 1] = y;
+        a[i * 3 + 2] = z;
+    }
+
+    private synchronized void grow(int n) {
+        double[] translations0 = translations;
+        double[] rotations0 = rotations;
+        double[] scales0 = scales;
+        int[] fillColors0 = fillColors;
+        Selector[] selectors0 = selectors;
+        double[] matrices0 = matrices;
+        boolean[] matrixValid0 = matrixValid;
+        allocate(n);
+        System.arraycopy(translations0, 0, translations, 0, count * 3);
+        System.arraycopy(rotations0, 0, rotations, 0, count * 3);
+        System.arraycopy(scales0, 0, scales, 0, count * 3);
+        System.arraycopy(fillColors0, 0, fillColors, 0, count);
+        System.arraycopy(selectors0, 0, selectors, 0, count);
+        System.arraycopy(matrices0, 0, matrices, 0, count * 16);
+        System.arraycopy(matrixValid0, 0, matrixValid, 0, count);
+    }
+
+    private void allocate(int n) {
+        translations = new double[n * 3];
+        rotations = new double[n * 3];
+        scales = new double[n * 3];
+        fillColors = new int[n];
+        selectors = new Selector[n];
+        matrices = new double[n * 16];
+        matrixValid = new boolean[n];
+        tempMatrix = new Matrix();
+    }
+
+    /** Fill color of an instance that has none of it's own */
+    public static final int NO_COLOR = -1;
+
+    private final Mesh mesh;
+
+    private int count; // number of instances
+
+    private double[] translations; // x, y, z for each instance
+
+    private double[] rotations; // degrees about x, y, z
+
+    private double[] scales;
+
+    private int[] fillColors; // packed 0xRRGGBB, or NO_COLOR
+
+    private Selector[] selectors;
+
+    private double[] matrices; // sixteen elements for each instance
+
+    private boolean[] matrixValid; // whether each matrix is composed
+
+    private Matrix tempMatrix;
+}
@@ -37,6 +37,10 @@ package com.neocoders.nectar3d.scene;
  * When the computed interpolation time is within the first and last keyframes the attribute is interpolated.
  * When the computed interpolation time is after the last keyframe, the interpolator
  * destroys itself, notifying observers as it does so.
+ * <p>
+ * While it has a parent, the interpolator is updated by the Animator of the scene graph it is in, along with all other
+ * live interpolators there, before each frame is rendered, rather than by the renderer when it traverses the
+ * interpolator.
  */
 public class Interpolator extends SceneElement {
     /**
@@ -110,27 +114,63 @@ public class Interpolator extends SceneElement {
     }
 
     /**
-     * Causes interpolator to interpolate it's attribute according to the given time instant.<p>
-     * The first time the interpolator is updated it records the instant as the starting
-     * time of interpolation. Interpolation times are then computed as the difference
-     * between the given time instant and the starting time; thefore the first computed
-     * interpolation time is zero milliseconds. Three cases are then handled for the computed time value:
+     * Causes interpolator to interpolate it's parent's attribute according to the given time instant, taking the
+     * write lock on the scene graph to do so. A snapshot copy updates it's original instead, whose change is seen
+     * by the next snapshot. This is done for all live interpolators in a scene graph by it's Animator, so need only
+     * be called for an interpolator on it's own.<p>
+     * The first time the interpolator is updated it records the instant as the starting time of interpolation.
+     * Interpolation times, against which keyframe instants are compared, are then computed as the difference
+     * between the given time instant and the starting time; therefore the first computed interpolation time is
+     * zero milliseconds. Three cases are then handled for the computed time value:
      * <ol><li>time before the first keyframe - interpolator does nothing</li>
      * <li>time within the first and last keyframes - attribute is interpolated</li>
-     * <li>time after the last keyframe -  interpolator destroys itself and notifies observers</li></ol>
+     * <li>time after the last keyframe - attribute is set to the last value, and the interpolator destroys
+     * itself, notifying observers when garbage-collected</li></ol>
      * @param instant the current scene time in milliseconds
      */
     public void update(long instant) {
-    
+        if (isSnapshot()) {
+            ((Interpolator)getOriginal()).update(instant);
+            return;
+        }
+        SceneLock lock = getSceneLock();
+        lock.lockWrite();
+        try {
+            interpolate(instant);
+        } finally {
+            lock.unlockWrite();
+        }
+    }
+
+    /**
+     * Becomes live, to be found by Animators, when added to a parent, and stops when removed from it, as it is when
+     * garbage-collected after it's last keyframe
+     */
+    protected void parentChanged() {
+        boolean live = (getParent() != null) && (getState() != STATE_DESTROYED);
+        if (live == animated) {
+            return;
+        }
+        animated = live;
+        if (live) {
+            Animator.add(this);
+        } else {
+            Animator.remove(this);
+        }
+    }
+
+    /** Interpolates the parent's attribute; the caller holds the write lock */
+    void interpolate(long instant) {
         SceneElement parent = getParent();
-        if (!(parent instanceof AttributeGroup)) {
-            return; // Cant interpolate parent; wrong type
+        if (!(parent instanceof AttributeGroup) || getState() == STATE_DESTROYED) {
+            return; // Cant interpolate parent; wrong type, or already finished
         }
         if (timeActivated < 0L) {
             timeActivated = instant; // I am now active
         }
+        long time = instant - timeActivated; // keyframe instants are relative to activation
         double value;
-        switch (findEnclosingFrame(instant)) {
+        switch (findEnclosingFrame(time)) {
             case EMPTY:
                 return;
             case BEFORE_FIRST:
@@ -141,7 +181,7 @@ public class Interpolator extends SceneElement {
                 destroy(); // served my purpose
                 return;
             case FOUND:
-                value = interpolate(instant - timeActivated);
+                value = valueAt(time);
                 ((AttributeGroup)parent).setAttribute(attrID, value);
                 break;
             default: // satisfy compiler
@@ -149,31 +189,42 @@ public class Interpolator extends SceneElement {
         }
     }
 
-    private double interpolate(double instant) {
+    private double valueAt(long time) {
         double u = (double)(instants[key2] - instants[key1]);
-        double v = (double)(instant - instants[key1]);
+        double v = (double)(time - instants[key1]);
         double w = values[key2] - values[key1];
         return values[key1] + ((v / u) * w);
     }
 
-    private int findEnclosingFrame(long instant) {
+    /**
+     * Finds the keyframes either side of the given time, keeping them from the last call when the time is still
+     * between them, as it mostly is from one frame to the next, otherwise by binary search
+     */
+    private int findEnclosingFrame(long time) {
         if (instants.length == 0) {
             return EMPTY;
         }
-        if (instant < instants[0]) {
+        if (time < instants[0]) {
             return BEFORE_FIRST;
         }
-        if (instant > instants[instants.length - 1]) {
+        if (time > instants[instants.length - 1]) {
             return AFTER_LAST;
         }
-        while (instants[key1] > instant) {
-            key1--;
-            key2--;
+        if (instants[key1] <= time && time <= instants[key2]) {
+            return FOUND;
         }
-        while (instants[key2] < instant) {
-            key1++;
-            key2++;
+        int low = 0;
+        int high = instants.length - 1;
+        while (high - low > 1) { // instants[low] <= time <= instants[high]
+            int mid = (low + high) >>> 1;
+            if (instants[mid] <= time) {
+                low = mid;
+            } else {
+                high = mid;
+            }
         }
+        key1 = low;
+        key2 = high;
         return FOUND;
     }
 
@@ -183,6 +234,7 @@ public class Interpolator extends SceneElement {
     private double[] values;
     private int key1;
     private int key2;
+    private boolean animated; // live, ie. registered with Animators
     private final static int EMPTY = 0;
     private final static int FOUND = 1;
     private final static int BEFORE_FIRST = 2;
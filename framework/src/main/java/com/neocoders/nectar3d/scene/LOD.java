@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.scene;
+
+/**
+ * Level of detail. Each child is a level, from the most detailed to the least, and a renderer visits only the level
+ * chosen for how large or how distant the element appears, by the bounds of all it's levels. Visitors that do not
+ * choose visit every level.<br>
+ * <br>
+ * There is one threshold between each level and the next. By projected SIZE, which is the diameter of the bounding
+ * sphere in pixels, level i is chosen while the size is at least threshold i, so thresholds decrease; by DISTANCE
+ * along the line of sight, level i is chosen while the distance is less than threshold i, so thresholds increase. The
+ * last level is chosen beyond the last threshold; make it an empty element to draw nothing there.<br>
+ * <br>
+ * To avoid levels popping back and forth on the boundary between them, the level chosen last is kept until the size
+ * or distance is beyond the edge of it's range by more than the hysteresis fraction of the threshold there.
+ */
+public class LOD extends SceneElement {
+    /** Choose levels by diameter of the bounding sphere in pixels */
+    public static final int SIZE = 0;
+
+    /** Choose levels by distance along the line of sight */
+    public static final int DISTANCE = 1;
+
+    /**
+     * Creates new level of detail element
+     * @param metric SIZE or DISTANCE
+     * @param thresholds threshold between each level and the next
+     */
+    public LOD(int metric, double[] thresholds) {
+        super();
+        if (metric != SIZE && metric != DISTANCE) {
+            throw new IllegalArgumentException("unknown metric: " + metric);
+        }
+        this.metric = metric;
+        this.thresholds = thresholds.clone();
+        hysteresis = DEFAULT_HYSTERESIS;
+    }
+
+    /**
+     * Accept scene graph visitor before it visits sub-elements
+     * @param visitor the scene graph visitor
+     */
+    public void acceptPreOrderVisitor(SceneVisitor visitor) {
+        visitor.preOrderVisitLOD(this);
+    }
+
+    /**
+     * Accept scene graph visitor after it has visited sub-elements
+     * @param visitor the scene graph visitor
+     */
+    public void acceptPostOrderVisitor(SceneVisitor visitor) {
+        visitor.postOrderVisitLOD(this);
+    }
+
+    public int getMetric() {
+        return metric;
+    }
+
+    /**
+     * Gets the thresholds between levels
+     * @return copy of the thresholds
+     */
+    public double[] getThresholds() {
+        return thresholds.clone();
+    }
+
+    public void setThresholds(double[] thresholds) {
+        this.thresholds = thresholds.clone();
+        invalidate();
+    }
+
+    public double getHysteresis() {
+        return hysteresis;
+    }
+
+    /**
+     * Sets how far beyond the range of the level chosen last the size or distance must be before another level is
+     * chosen
+     * @param hysteresis fraction of the threshold at the edge of the range
+     */
+    public void setHysteresis(double hysteresis) {
+        this.hysteresis = hysteresis;
+        invalidate();
+    }
+
+    /**
+     * Gets a level
+     * @param i index of the level
+     * @return the child element that is the level
+     */
+    public SceneElement getLevel(int i) {
+        return childAt(i);
+    }
+
+    /**
+     * Chooses a level
+     * @param value projected size or distance, according to the metric
+     * @param current level chosen last, or -1 if none
+     * @return index of the level, or -1 if there are no levels
+     */
+    public int chooseLevel(double value, int current) {
+        int last = getNumChildren() - 1;
+        if (last < 0) {
+            return -1;
+        }
+        if (current >= 0 && current <= last && inRange(current, value, hysteresis)) {
+            return current;
+        }
+        for (int i = 0; i < last; i++) {
+            if (inRange(i, value, 0.0)) {
+                return i;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Finds out if a value is within the range of a level, widened by a fraction of the thresholds at it's edges
+     */
+    private boolean inRange(int level, double value, double widen) {
+        double[] t = thresholds;
+        if (metric == SIZE) {
+            if (level < t.length && value < t[level] * (1.0 - widen)) {
+                return false;
+            }
+            return (level == 0 || level > t.length || value < t[level - 1] * (1.0 + widen));
+        }
+        if (level < t.length && value >= t[level] * (1.0 + widen)) {
+            return false;
+        }
+        return (level == 0 || level > t.length || value >= t[level - 1] * (1.0 - widen));
+    }
+
+    /** Hysteresis of new elements */
+    public static final double DEFAULT_HYSTERESIS = 0.1;
+
+    private final int metric;
+
+    private double[] thresholds;
+
+    private double hysteresis;
+}
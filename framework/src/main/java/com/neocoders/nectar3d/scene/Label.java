@@ -27,6 +27,7 @@ package com.neocoders.nectar3d.scene;
 
 import java.awt.Font;
 
+import com.neocoders.nectar3d.common.Bounds3;
 import com.neocoders.nectar3d.common.Point3;
 
 
@@ -55,6 +56,12 @@ public class Label extends SceneElement {
 
     public void setText(String text) {
         this.text = text;
+        invalidate();
+    }
+
+    protected void initSnapshot() {
+        super.initSnapshot();
+        offset = new Point3(offset);
     }
 
     public String getText() {
@@ -71,6 +78,14 @@ public class Label extends SceneElement {
         return font;
     }
 
+    /**
+     * Label bounds are infinite, since the text is sized in pixels and so has no extent in model space
+     * @param bounds empty bounds to grow
+     */
+    protected void computeBounds(Bounds3 bounds) {
+        bounds.setInfinite();
+    }
+
 
 
     private String text;
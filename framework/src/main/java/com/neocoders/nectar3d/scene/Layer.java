@@ -29,12 +29,24 @@ package com.neocoders.nectar3d.scene;
 * parameters may be specified.
  * There must be at least one Layer child of the root element, and all
  * other non-root elements must be descendants of a Layer. For each Layer
- * we can specify if depth-sorting, fog depth-cueing and shading are
- * applied when it's subtree is rendered. Layers are rendered in the
+ * we can specify how hidden surfaces are removed, and if fog depth-cueing
+ * and shading are applied when it's subtree is rendered. Layers are rendered in the
  * order in which they are specified in the scene graph and may not be
  * descendants of one-another.
  */
 public class Layer extends SceneElement {
+    /** Visible elements are drawn in the order they are visited */
+    public static final int UNSORTED = 0;
+
+    /** Visible elements are sorted by their nearest depth and drawn furthest first */
+    public static final int DEPTH_SORT = 1;
+
+    /** Visible elements are drawn in the order they are visited, each pixel only where it is nearer than what the
+     * layer has already drawn there, which is right for faces that intersect or overlap one-another cyclically. Labels
+     * are drawn over the faces. Renderers that can't keep depth per pixel depth sort instead.
+     */
+    public static final int DEPTH_BUFFER = 2;
+
     /** Create new scene graph layer and specify rendering parameters for it.
      * @param selector identifies this layer
      * @param depthSoft specifies if visible layer elements will be depthsorted
@@ -42,9 +54,22 @@ public class Layer extends SceneElement {
      * @param shade specifies if visible layer elements will be shaded
      */
     public Layer(Selector selector, boolean depthSort, boolean fog, boolean shade) {
+        this(selector, depthSort ? DEPTH_SORT : UNSORTED, fog, shade);
+    }
+
+    /** Create new scene graph layer and specify rendering parameters for it.
+     * @param selector identifies this layer
+     * @param visibility how hidden surfaces are removed; UNSORTED, DEPTH_SORT or DEPTH_BUFFER
+     * @param fog specifies if layer is to be rendered with fog cueing
+     * @param shade specifies if visible layer elements will be shaded
+     */
+    public Layer(Selector selector, int visibility, boolean fog, boolean shade) {
         super();
+        if (visibility < UNSORTED || visibility > DEPTH_BUFFER) {
+            throw new IllegalArgumentException("unknown visibility: " + visibility);
+        }
         this.selector = selector;
-        this.depthSort = depthSort;
+        this.visibility = visibility;
         this.fog = fog;
         this.shade = shade;
     }
@@ -60,7 +85,14 @@ public class Layer extends SceneElement {
      * @return true if depthsorted else false
      */
     public boolean getDepthSort() {
-        return depthSort;
+        return (visibility == DEPTH_SORT);
+    }
+
+    /** Find out how hidden surfaces are removed when this layer is rendered
+     * @return UNSORTED, DEPTH_SORT or DEPTH_BUFFER
+     */
+    public int getVisibility() {
+        return visibility;
     }
 
     /** Find out if this layer's visible elements are fogged proportional to their
@@ -96,7 +128,7 @@ public class Layer extends SceneElement {
      * @clientCardinality 0..* 
      */
     private Selector selector;
-    private boolean depthSort;
+    private int visibility;
     private boolean fog;
     private boolean shade;
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.scene;
+
+import com.neocoders.nectar3d.common.Bounds3;
+import com.neocoders.nectar3d.common.Point3;
+
+/**
+ * An immutable list of vertices and list of faces, which any number of Geometry elements may share, each scaling it by
+ * it's own factors. The mesh takes copies of the vertices and faces it's made from, and the arrays it gives out must not
+ * be modified.
+ */
+public class Mesh {
+    /**
+     * Creates new mesh from copies of the given vertices and faces
+     * @param verts the vertices
+     * @param faces the faces, as indices into verts
+     */
+    public Mesh(Point3[] verts, Face[] faces) {
+        this.verts = new Point3[verts.length];
+        bounds = new Bounds3();
+        for (int i = 0; i < verts.length; i++) {
+            this.verts[i] = new Point3(verts[i]);
+            bounds.include(verts[i].x, verts[i].y, verts[i].z);
+        }
+        this.faces = new Face[faces.length];
+        for (int i = 0; i < faces.length; i++) {
+            int[] fverts = new int[faces[i].verts.length];
+            System.arraycopy(faces[i].verts, 0, fverts, 0, fverts.length);
+            this.faces[i] = new Face(fverts);
+        }
+    }
+
+    /**
+     * Get the vertices, which must not be modified
+     * @return the vertices
+     */
+    public Point3[] getVertices() {
+        return verts;
+    }
+
+    /**
+     * Get the faces, which must not be modified
+     * @return the faces
+     */
+    public Face[] getFaces() {
+        return faces;
+    }
+
+    /**
+     * Get the bounds of the vertices
+     * @return the bounds, which must not be modified
+     */
+    public Bounds3 getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Includes the vertices, scaled, in some bounds
+     * @param bounds bounds to grow
+     */
+    public void includeIn(Bounds3 bounds, double xScale, double yScale, double zScale) {
+        if (this.bounds.isEmpty()) {
+            return;
+        }
+        bounds.include(this.bounds.xmin * xScale, this.bounds.ymin * yScale, this.bounds.zmin * zScale);
+        bounds.include(this.bounds.xmax * xScale, this.bounds.ymax * yScale, this.bounds.zmax * zScale);
+    }
+
+    private final Point3[] verts;
+
+    private final Face[] faces;
+
+    private final Bounds3 bounds; // of the vertices
+}
@@ -26,6 +26,8 @@ package com.neocoders.nectar3d.scene;
 import java.util.Vector;
 import java.util.Iterator;
 
+import com.neocoders.nectar3d.common.Bounds3;
+
 /**
  * Basic scene element which can be linked into a directed acyclic graph
  * with other scene elements.
@@ -39,14 +41,43 @@ import java.util.Iterator;
  * modification exception being thrown if we are iterating an element's children
  * when we destroy one of them. Garbage collection is therefore to be done after
  * we have iterated a scene graph.
+ * <br>
+ * <b>Modification Stamps</b>
+ * <br>
+ * Each element carries two stamps, taken from an ever-increasing sequence: a
+ * modification stamp, renewed whenever the state of the element itself changes
+ * (eg. a transform attribute or fill color is set, or the element is attached
+ * to a new parent), and a subtree stamp, renewed whenever anything changes in
+ * the element or it's subtree, including children being added or removed. A
+ * new subtree stamp is propagated up through all ancestors, and therefore to the
+ * enclosing Layer. A renderer can remember the stamps it last saw for an element
+ * and, while they are unchanged, reuse what it generated for the element's
+ * subtree instead of traversing it again.
+ * <br>
+ * <b>Bounds</b>
+ * <br>
+ * Each element lazily computes the bounds of it's subtree, which are cached
+ * against the subtree stamp, so that a renderer can skip subtrees that lie
+ * outside the view.
+ * <br>
+ * <b>Snapshots</b>
+ * <br>
+ * An immutable copy of an element and it's subtree may be taken with snapshot, to be traversed without
+ * locking while the original is modified (see SceneSnapshot). Each element keeps the copy last made of it,
+ * which is reused by the next snapshot while it's subtree stamp is unchanged, so successive snapshots share
+ * all but the paths to what changed in between. Copies keep the stamps of their originals and have no parent.
+ * Subclasses that hold state which can be modified in place, eg. arrays, override initSnapshot to give the copy
+ * it's own.
  */
-public class SceneElement {
+public class SceneElement implements Cloneable {
     /** Create new basic scene element with no parent or children */
     public SceneElement() {
         parent = null;
         children = null;
         observers = null;
         state = STATE_DEFAULT;
+        modificationStamp = nextStamp();
+        subtreeStamp = modificationStamp;
     }
 
     /**
@@ -75,6 +106,7 @@ public class SceneElement {
      * @param child new child for this
      */
     public void addChild(SceneElement child) {
+        checkModifiable();
      if (child.parent != null) {
             child.parent.removeChild(child);
         }
@@ -83,15 +115,16 @@ public class SceneElement {
         }
         children.addElement(child);
     	child.parent = this;
+        child.invalidate(); // placed somewhere new
+        child.parentChanged();
     }
 
-  //
-
     /**
      * Removes a child from this element Nothing happens if element is not child of this.
      * @param child child to remove
      */
     public void removeChild(SceneElement child) {
+        checkModifiable();
         if (children == null) {
             return;
         }
@@ -100,6 +133,15 @@ public class SceneElement {
         }
         children.removeElement(child);
         child.parent = null;
+        invalidateStructure();
+        child.parentChanged();
+    }
+
+    /**
+     * Called after this element is added to a parent or removed from it, eg. for an Interpolator to start or stop
+     * being animated. Not called on snapshot copies, which are given no parent.
+     */
+    protected void parentChanged() {
     }
 
     /**
@@ -113,6 +155,19 @@ public class SceneElement {
         return children.iterator();
     }
 
+    /**
+     * Gets number of child elements of this
+     * @return number of child elements
+     */
+    public int getNumChildren() {
+        return (children == null) ? 0 : children.size();
+    }
+
+    /** Child at given index, without range checking, for iterating without an Iterator */
+    SceneElement childAt(int i) {
+        return (SceneElement)children.elementAt(i);
+    }
+
     /**
      * Get child element at given index
      * @param i index of child element to get
@@ -147,14 +202,25 @@ public class SceneElement {
         destroyedElements.addElement(this);
     }
 
-    /** Garbage-collects destroyed elements, removing each element from it's parent and notifying it's observers. */
+    /**
+     * Garbage-collects destroyed elements, removing each element from it's parent and notifying it's observers.
+     * Takes the write lock on the scene graph if there are any.
+     */
     public static void garbageCollect() {
-        for (int i = 0; i < destroyedElements.size(); i++) {
-            SceneElement element = (SceneElement)destroyedElements.elementAt(i);
-            element.getParent().removeChild(element);
-            element.notifyObservers();
+        if (destroyedElements.isEmpty()) {
+            return;
+        }
+        lock.lockWrite();
+        try {
+            for (int i = 0; i < destroyedElements.size(); i++) {
+                SceneElement element = (SceneElement)destroyedElements.elementAt(i);
+                element.getParent().removeChild(element);
+                element.notifyObservers();
+            }
+            destroyedElements.clear();
+        } finally {
+            lock.unlockWrite();
         }
-        destroyedElements.clear();
     }
 
     /**
@@ -196,11 +262,159 @@ public class SceneElement {
     }
 
     /**
-     * Gets scene graph lock, which is used to prevent concurrent modification of a scene graph
+     * Notes that the state of this element has changed, renewing it's modification stamp and the subtree
+     * stamps of it and all it's ancestors. Elements call this themselves when modified through their
+     * methods; call it after modifying an element's state in place, eg. the vertices of a Geometry.
+     */
+    public void invalidate() {
+        checkModifiable();
+        long stamp = nextStamp();
+        modificationStamp = stamp;
+        for (SceneElement e = this; e != null; e = e.parent) {
+            e.subtreeStamp = stamp;
+        }
+    }
+
+    /**
+     * Notes that the structure of the subtree beneath this element has changed, renewing the subtree stamps
+     * of it and all it's ancestors, but not it's own modification stamp.
+     */
+    protected void invalidateStructure() {
+        checkModifiable();
+        long stamp = nextStamp();
+        for (SceneElement e = this; e != null; e = e.parent) {
+            e.subtreeStamp = stamp;
+        }
+    }
+
+    /**
+     * Gets the stamp that was renewed when the state of this element last changed
+     * @return the modification stamp
+     */
+    public long getModificationStamp() {
+        return modificationStamp;
+    }
+
+    /**
+     * Gets the stamp that was renewed when this element or anything in it's subtree last changed
+     * @return the subtree stamp
+     */
+    public long getSubtreeStamp() {
+        return subtreeStamp;
+    }
+
+    /**
+     * Gets the bounds of this element and it's subtree, in the coordinate space this element is placed in,
+     * which are recomputed only after the subtree stamp has changed. Bounds are infinite when the subtree
+     * contains something whose extent is not known, eg. a Label, whose text is sized in pixels.
+     * @return the bounds, which are owned by this element and must not be modified
+     */
+    public synchronized Bounds3 getBounds() {
+        if (bounds == null) {
+            bounds = new Bounds3();
+        } else if (boundsStamp == subtreeStamp) {
+            return bounds;
+        }
+        bounds.setEmpty();
+        computeBounds(bounds);
+        bounds.fitSphere();
+        boundsStamp = subtreeStamp;
+        return bounds;
+    }
+
+    /**
+     * Computes the bounds of this element and it's subtree. By default, the union of the bounds of the
+     * children that are traversed; override to add the extent of the element itself.
+     * @param bounds empty bounds to grow
+     */
+    protected void computeBounds(Bounds3 bounds) {
+        for (int i = 0; i < getNumChildren(); i++) {
+            bounds.include(childAt(i).getBounds());
+        }
+    }
+
+    /**
+     * Gets an immutable copy of this element and it's subtree as they are now, sharing the copies of subtrees
+     * that have not changed since they were last copied. The caller must hold at least the read lock on the
+     * scene graph.
+     * @return the copy, or this element if it is a snapshot already
+     */
+    public SceneElement snapshot() {
+        if (original != null) {
+            return this;
+        }
+        synchronized (snapshotMonitor) {
+            return copySubtree();
+        }
+    }
+
+    private SceneElement copySubtree() {
+        if (snapshotCopy != null && snapshotStamp == subtreeStamp) {
+            return snapshotCopy;
+        }
+        SceneElement copy;
+        try {
+            copy = (SceneElement)clone();
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError(e.toString()); // is Cloneable
+        }
+        copy.original = this;
+        copy.parent = null;
+        copy.observers = null;
+        copy.bounds = null;
+        copy.snapshotCopy = null;
+        if (children != null) {
+            copy.children = new Vector(children.size());
+            for (int i = 0; i < children.size(); i++) {
+                copy.children.addElement(((SceneElement)children.elementAt(i)).copySubtree());
+            }
+        }
+        copy.initSnapshot();
+        snapshotCopy = copy;
+        snapshotStamp = subtreeStamp;
+        return copy;
+    }
+
+    /**
+     * Called on a new snapshot copy, after it's children have been copied, to replace any state shared with the
+     * original that could be modified in place with copies of it's own. The original is got with getOriginal.
+     */
+    protected void initSnapshot() {
+    }
+
+    /**
+     * Finds out if this element is an immutable snapshot copy, which fails with IllegalStateException when
+     * modified
+     * @return true if this is a snapshot copy else false
+     */
+    public boolean isSnapshot() {
+        return original != null;
+    }
+
+    /**
+     * Gets the element this snapshot copy was made from
+     * @return the original, or null if this is not a snapshot copy
+     */
+    public SceneElement getOriginal() {
+        return original;
+    }
+
+    private void checkModifiable() {
+        if (original != null) {
+            throw new IllegalStateException("snapshot cannot be modified");
+        }
+    }
+
+    private static synchronized long nextStamp() {
+        return ++lastStamp;
+    }
+
+    /**
+     * Gets scene graph lock, which is used to prevent concurrent modification of a scene graph while it is read
      * @return the scene graph lock
      */
-    public static SceneMutex getSceneMutex() {
-        return mutex;
+    public static SceneLock getSceneLock() {
+        return lock;
     }
 
     public void print()
@@ -225,9 +439,18 @@ public class SceneElement {
     private static Vector destroyedElements = new Vector();
     private Vector observers;
     private int state;
+    private long modificationStamp;
+    private long subtreeStamp;
+    private Bounds3 bounds;
+    private long boundsStamp;
+    private static long lastStamp = 0L;
     /** Default state of a scene element */
     public final static int STATE_DEFAULT = 0;
     /**State of a scene element that has been destroyed */
     public final static int STATE_DESTROYED = 1;
-    private static SceneMutex mutex = new SceneMutex();
+    private SceneElement original; // if this is a snapshot copy
+    private SceneElement snapshotCopy; // last snapshot copy made of this
+    private long snapshotStamp; // subtree stamp when that copy was made
+    private static Object snapshotMonitor = new Object();
+    private static SceneLock lock = new SceneLock();
 }
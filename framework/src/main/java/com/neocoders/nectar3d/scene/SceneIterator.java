@@ -23,21 +23,58 @@
 
 package com.neocoders.nectar3d.scene;
 
-import java.util.Iterator;
-
 /** Iterates over a scene graph to visit each element. */
 public class SceneIterator {
     /**
      * Iterates over a scene graph and visits each element. The visitor is accepted twice by each element, once before
-     * it's children are visited and a second time after it's children are visited.
+     * it's children are visited and a second time after it's children are visited. If the visitor is a
+     * SelectiveSceneVisitor, it is asked before each element is visited whether to visit it and it's subtree.
+     * The scene graph is locked while it is iterated, unless the root is a snapshot.
      *@param root root of scene graph
      * @visitor element visitor
      */
     public void iterate(SceneElement root, SceneVisitor visitor) {
-        SceneElement.getSceneMutex().lock();
-        iterateRecursively(root, visitor);
-        SceneElement.garbageCollect();
-        SceneElement.getSceneMutex().unlock();
+        if (root != null && root.isSnapshot()) {
+            visit(root, visitor); // immutable, so needs no lock
+            SceneElement.garbageCollect(); // of originals destroyed meanwhile
+            return;
+        }
+        SceneLock lock = SceneElement.getSceneLock();
+        if (readOnly) {
+            lock.lockRead();
+        } else {
+            lock.lockUpgradableRead();
+        }
+        try {
+            visit(root, visitor);
+            if (!readOnly) {
+                SceneElement.garbageCollect();
+            }
+        } finally {
+            if (readOnly) {
+                lock.unlockRead();
+            } else {
+                lock.unlockUpgradableRead();
+            }
+        }
+    }
+
+    private void visit(SceneElement root, SceneVisitor visitor) {
+        if (visitor instanceof SelectiveSceneVisitor) {
+            iterateSelectively(root, (SelectiveSceneVisitor)visitor);
+        } else {
+            iterateRecursively(root, visitor);
+        }
+    }
+
+    /**
+     * Specifies if visitors only read the scene graph, in which case it is iterated under the shared read lock,
+     * alongside other readers. Otherwise it is iterated under the upgradable read lock, which only one thread may hold
+     * at once, so that visitors may take the write lock to modify the scene graph as they go.
+     * @param readOnly true if visitors do not modify the scene graph
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
     }
 
     private void iterateRecursively(SceneElement root, SceneVisitor visitor) {
@@ -45,12 +82,26 @@ public class SceneIterator {
             return;
         }
         root.acceptPreOrderVisitor(visitor);
-        Iterator iterator = root.getChildren();
-        if (iterator != null) {
-            while (iterator.hasNext()) {
-                iterateRecursively((SceneElement)iterator.next(), visitor);
-            }
+        for (int i = 0; i < root.getNumChildren(); i++) {
+            iterateRecursively(root.childAt(i), visitor);
         }
         root.acceptPostOrderVisitor(visitor);
     }
+
+    private void iterateSelectively(SceneElement root, SelectiveSceneVisitor visitor) {
+        if (root == null) {
+            return;
+        }
+        if (!visitor.enterElement(root)) {
+            return;
+        }
+        root.acceptPreOrderVisitor(visitor);
+        for (int i = 0; i < root.getNumChildren(); i++) {
+            iterateSelectively(root.childAt(i), visitor);
+        }
+        root.acceptPostOrderVisitor(visitor);
+        visitor.leaveElement(root);
+    }
+
+    private boolean readOnly;
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+
+package com.neocoders.nectar3d.scene;
+
+/**
+ * Read/write lock on a scene graph.
+ * <p>
+ * Any number of threads may hold the read lock at once, to traverse or query a scene without modifying it. The
+ * write lock is exclusive, and is taken to modify a scene. In between is the upgradable read lock, which is held
+ * by one thread at a time alongside any readers, by traversals that may modify the scene as they go. A thread holding the upgradable read lock may take the write lock, which
+ * waits for readers to finish. A thread holding only the read lock may not take the write lock, since two readers
+ * doing that would wait for each other forever. All three locks are reentrant, and a thread holding the write lock
+ * may take either of the others. Threads waiting for the write lock are given priority over new readers.
+ * <p>
+ * Short reads may avoid locking altogether by getting a stamp with tryOptimisticRead, reading, then checking with
+ * validate that the scene was not written meanwhile, taking the read lock and reading again if it was.
+ * <p>
+ * The number of times each lock was acquired, and the time spent waiting for and holding it, are recorded for
+ * tuning, counting only the outermost acquisition by each thread.
+ * <p>
+ * Waiting for a lock with lockRead, lockUpgradableRead or lockWrite is not interrupted, but leaves the thread's
+ * interrupt status set if it was interrupted while waiting. The interruptible variants throw InterruptedException
+ * instead.
+ */
+public class SceneLock {
+    /** Mode of a shared read lock */
+    public final static int READ = 0;
+    /** Mode of the upgradable read lock */
+    public final static int UPGRADABLE_READ = 1;
+    /** Mode of the exclusive write lock */
+    public final static int WRITE = 2;
+
+    public SceneLock() {
+        writer = null;
+        upgrader = null;
+        readerCount = 0;
+        writersWaiting = 0;
+        writeStamp = 2L;
+        holds = new ThreadLocal() {
+            protected Object initialValue() {
+                return new long[6];
+            }
+        };
+        acquisitions = new long[3];
+        waitNanos = new long[3];
+        maxWaitNanos = new long[3];
+        holdNanos = new long[3];
+    }
+
+    /** Takes the read lock, waiting while another thread holds or is waiting for the write lock */
+    public void lockRead() {
+        try {
+            acquire(READ, false);
+        } catch (InterruptedException e) {
+            // not thrown when not interruptible
+        }
+    }
+
+    public void lockReadInterruptibly() throws InterruptedException {
+        acquire(READ, true);
+    }
+
+    /**
+     * Takes the read lock if that can be done without waiting
+     * @return true if the lock was taken else false
+     */
+    public boolean tryLockRead() {
+        long[] h = (long[]) holds.get();
+        if (h[READ * 2] > 0L) {
+            h[READ * 2]++;
+            return true;
+        }
+        synchronized (this) {
+            if (!canAcquire(READ, Thread.currentThread(), h)) {
+                return false;
+            }
+            readerCount++;
+            acquisitions[READ]++;
+            h[READ * 2] = 1L;
+            h[READ * 2 + 1] = System.nanoTime();
+        }
+        return true;
+    }
+
+    public void unlockRead() {
+        release(READ);
+    }
+
+    /** Takes the upgradable read lock, waiting while another thread holds it or the write lock */
+    public void lockUpgradableRead() {
+        try {
+            acquire(UPGRADABLE_READ, false);
+        } catch (InterruptedException e) {
+            // not thrown when not interruptible
+        }
+    }
+
+    public void lockUpgradableReadInterruptibly() throws InterruptedException {
+        acquire(UPGRADABLE_READ, true);
+    }
+
+    public void unlockUpgradableRead() {
+        release(UPGRADABLE_READ);
+    }
+
+    /**
+     * Takes the write lock, waiting until no other thread holds any lock
+     * @throws IllegalStateException if this thread holds the read lock but not the upgradable read or write lock
+     */
+    public void lockWrite() {
+        try {
+            acquire(WRITE, false);
+        } catch (InterruptedException e) {
+            // not thrown when not interruptible
+        }
+    }
+
+    public void lockWriteInterruptibly() throws InterruptedException {
+        acquire(WRITE, true);
+    }
+
+    public void unlockWrite() {
+        release(WRITE);
+    }
+
+    /**
+     * Gets a stamp for reading without locking, to be checked with validate afterwards
+     * @return the stamp, or zero if the write lock is held, in which case validate will fail
+     */
+    public long tryOptimisticRead() {
+        long stamp = writeStamp;
+        return ((stamp & 1L) == 0L) ? stamp : 0L;
+    }
+
+    /**
+     * Finds out if the scene has not been written since a stamp was got with tryOptimisticRead
+     * @return true if what was read since is consistent, else false
+     */
+    public boolean validate(long stamp) {
+        return stamp != 0L && writeStamp == stamp;
+    }
+
+    /** Finds out if the current thread holds the write lock */
+    public synchronized boolean isWriteLocked() {
+        return writer == Thread.currentThread();
+    }
+
+    /** @return number of times the lock was acquired in the given mode */
+    public synchronized long getAcquisitions(int mode) {
+        return acquisitions[mode];
+    }
+
+    /** @return total nanoseconds spent waiting for the lock in the given mode */
+    public synchronized long getWaitNanos(int mode) {
+        return waitNanos[mode];
+    }
+
+    /** @return longest wait for the lock in the given mode, in nanoseconds */
+    public synchronized long getMaxWaitNanos(int mode) {
+        return maxWaitNanos[mode];
+    }
+
+    /** @return total nanoseconds the lock was held for in the given mode */
+    public synchronized long getHoldNanos(int mode) {
+        return holdNanos[mode];
+    }
+
+    public synchronized void resetStats() {
+        for (int i = 0; i < 3; i++) {
+            acquisitions[i] = 0L;
+            waitNanos[i] = 0L;
+            maxWaitNanos[i] = 0L;
+            holdNanos[i] = 0L;
+        }
+    }
+
+    public synchronized String toString() {
+        StringBuffer sb = new StringBuffer("SceneLock[");
+        for (int i = 0; i < 3; i++) {
+            sb.append(MODE_NAMES[i]).append(' ').append(acquisitions[i]).append(" waited ")
+                .append(waitNanos[i] / 1000000L).append("ms held ").append(holdNanos[i] / 1000000L)
+                .append(i < 2 ? "ms, " : "ms]");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Acquire the lock in a mode, counting reentrant acquisitions in this thread's holds: for each mode, the count
+     * and the time of the outermost acquisition
+     */
+    private void acquire(int mode, boolean interruptible) throws InterruptedException {
+        long[] h = (long[]) holds.get();
+        if (h[mode * 2] > 0L) {
+            h[mode * 2]++; // reentrant
+            return;
+        }
+        Thread current = Thread.currentThread();
+        boolean interrupted = false;
+        long waitStart = System.nanoTime();
+        synchronized (this) {
+            if (mode == WRITE) {
+                if (h[READ * 2] > 0L && h[UPGRADABLE_READ * 2] == 0L) {
+                    throw new IllegalStateException("cant take write lock while holding only read lock");
+                }
+                writersWaiting++;
+            }
+            try {
+                while (!canAcquire(mode, current, h)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        if (interruptible) {
+                            throw e;
+                        }
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (mode == WRITE) {
+                    writersWaiting--;
+                    if (writer != current) {
+                        notifyAll(); // readers held back for this writer
+                    }
+                }
+            }
+            switch (mode) {
+                case READ:
+                    readerCount++;
+                    break;
+                case UPGRADABLE_READ:
+                    upgrader = current;
+                    break;
+                case WRITE:
+                    writer = current;
+                    writeStamp++; // odd while written
+                    break;
+                default:
+                    break;
+            }
+            long now = System.nanoTime();
+            long waited = now - waitStart;
+            acquisitions[mode]++;
+            waitNanos[mode] += waited;
+            if (waited > maxWaitNanos[mode]) {
+                maxWaitNanos[mode] = waited;
+            }
+            h[mode * 2] = 1L;
+            h[mode * 2 + 1] = now;
+        }
+        if (interrupted) {
+            current.interrupt();
+        }
+    }
+
+    private boolean canAcquire(int mode, Thread current, long[] h) {
+        boolean writing = (writer == current);
+        switch (mode) {
+            case READ:
+                return writing || (writer == null && (writersWaiting == 0 || h[UPGRADABLE_READ * 2] > 0L));
+            case UPGRADABLE_READ:
+                return writing || (writer == null && upgrader == null);
+            case WRITE:
+                return writer == null && (upgrader == null || upgrader == current)
+                    && readerCount == ((h[READ * 2] > 0L) ? 1 : 0);
+            default:
+                return false;
+        }
+    }
+
+    private void release(int mode) {
+        long[] h = (long[]) holds.get();
+        if (h[mode * 2] == 0L) {
+            throw new IllegalStateException("lock not held");
+        }
+        if (--h[mode * 2] > 0L) {
+            return;
+        }
+        synchronized (this) {
+            holdNanos[mode] += System.nanoTime() - h[mode * 2 + 1];
+            switch (mode) {
+                case READ:
+                    readerCount--;
+                    break;
+                case UPGRADABLE_READ:
+                    upgrader = null;
+                    break;
+                case WRITE:
+                    writeStamp++;
+                    writer = null;
+                    break;
+                default:
+                    break;
+            }
+            notifyAll();
+        }
+    }
+
+    private final static String[] MODE_NAMES = { "read", "upgradable", "write" };
+    private Thread writer;
+    private Thread upgrader;
+    private int readerCount; // threads holding the read lock
+    private int writersWaiting;
+    private volatile long writeStamp; // incremented as the write lock is taken and released
+    private ThreadLocal holds; // long[] of count and time taken for each mode, for each thread
+    private long[] acquisitions;
+    private long[] waitNanos;
+    private long[] maxWaitNanos;
+    private long[] holdNanos;
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+
+package com.neocoders.nectar3d.scene;
+
+/**
+ * Publishes immutable snapshots of a scene graph, so that readers such as a renderer on a thread of it's own can
+ * traverse the graph without locking it, and without waiting for writers.
+ * <p>
+ * Writers modify the live scene graph under the write lock as usual, then commit once they have made a consistent
+ * set of changes. Committing takes a snapshot of the graph (see SceneElement.snapshot), which copies only what
+ * changed since the last one, and publishes it atomically. Readers get the latest published snapshot with
+ * getLatest, which never blocks. A reader may also publish snapshots with tryCommit, which gives up rather than
+ * wait while a writer holds or is waiting for the write lock.
+ */
+public class SceneSnapshot {
+    /**
+     * Creates new snapshot publisher, with nothing published yet
+     * @param root root of the live scene graph
+     */
+    public SceneSnapshot(SceneElement root) {
+        this.root = root;
+        latest = null;
+        version = 0L;
+    }
+
+    public SceneElement getRoot() {
+        return root;
+    }
+
+    /**
+     * Takes a snapshot of the scene graph and publishes it, waiting for the read lock if need be. May be called
+     * while holding the write lock.
+     * @return the snapshot
+     */
+    public SceneElement commit() {
+        SceneLock lock = SceneElement.getSceneLock();
+        lock.lockRead();
+        try {
+            return publish();
+        } finally {
+            lock.unlockRead();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the scene graph and publishes it, unless the scene graph is being written
+     * @return true if a snapshot was published, else false, leaving the last one published
+     */
+    public boolean tryCommit() {
+        SceneLock lock = SceneElement.getSceneLock();
+        if (!lock.tryLockRead()) {
+            return false;
+        }
+        try {
+            publish();
+            return true;
+        } finally {
+            lock.unlockRead();
+        }
+    }
+
+    private synchronized SceneElement publish() {
+        SceneElement snapshot = root.snapshot();
+        if (snapshot != latest) {
+            latest = snapshot;
+            version++;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets the last snapshot published
+     * @return the snapshot, or null if none has been published yet
+     */
+    public SceneElement getLatest() {
+        return latest;
+    }
+
+    /**
+     * Gets the number of different snapshots published, which increases when one is published after the scene
+     * graph has changed
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    private SceneElement root;
+    private volatile SceneElement latest;
+    private long version;
+}
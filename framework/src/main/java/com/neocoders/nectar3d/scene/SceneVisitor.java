@@ -42,6 +42,14 @@ public interface SceneVisitor {
 
     public void postOrderVisitGeometry(Geometry g);
 
+    public void preOrderVisitInstancedGeometry(InstancedGeometry g);
+
+    public void postOrderVisitInstancedGeometry(InstancedGeometry g);
+
+    public void preOrderVisitLOD(LOD lod);
+
+    public void postOrderVisitLOD(LOD lod);
+
     public void preOrderVisitLabel(Label t);
 
     public void postOrderVisitLabel(Label t);
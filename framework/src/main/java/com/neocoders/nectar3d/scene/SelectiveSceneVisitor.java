@@ -21,36 +21,24 @@
  * distribution.
  */
 
-package com.neocoders.nectar3d.renderer;
-
-import java.awt.Graphics;
-
-import com.neocoders.nectar3d.common.Point2;
-
-abstract class AbstractDisplayElement {
-	public AbstractDisplayElement(PickInfo pickInfo, double depth) {
-		this.pickInfo = pickInfo;
-		this.depth = depth;
-	}
-
-	public abstract boolean tryPick(Point2 pos);
-
-	public abstract void render(Graphics g, boolean highlighted);
-
-	public double getDepth() {
-		return depth;
-	}
-
-	public PickInfo getPickInfo() {
-		return pickInfo;
-	}
-
-	private double depth;
-
-	/**
-	 * @clientCardinality 1
-	 * @supplierCardinality 1
-	 */
-	private PickInfo pickInfo;
 
+package com.neocoders.nectar3d.scene;
+
+/** A SceneVisitor that is consulted before each element is visited, and may
+* choose to skip the element together with all of it's sub-elements, for
+* example because it can reuse what it made of them on an earlier traversal.
+*/
+public interface SelectiveSceneVisitor extends SceneVisitor {
+    /**
+     * Called before an element is visited
+     * @param element the element
+     * @return true to visit the element and it's sub-elements, false to skip them all
+     */
+    public boolean enterElement(SceneElement element);
+
+    /**
+     * Called after an element that was entered has been visited after it's sub-elements
+     * @param element the element
+     */
+    public void leaveElement(SceneElement element);
 }
@@ -52,6 +52,29 @@ public class Switch extends SceneElement {
         return switchedChild.iterator();
     }
 
+    /**
+     * Gets number of child elements that are traversed, which is one if a child is switched, else zero
+     * @return number of switched child elements
+     */
+    public int getNumChildren() {
+        return switchedChild.size();
+    }
+
+    SceneElement childAt(int i) {
+        return (SceneElement)switchedChild.elementAt(i);
+    }
+
+    /** Switches a snapshot copy to the copy of the switched child */
+    protected void initSnapshot() {
+        super.initSnapshot();
+        Vector switched = new Vector(1);
+        if (!switchedChild.isEmpty()) {
+            int i = getOriginal().children.indexOf(switchedChild.elementAt(0));
+            switched.addElement(children.elementAt(i));
+        }
+        switchedChild = switched;
+    }
+
     /**
      *Specify which child element is currently switched
      * @param i index of current switched child element
@@ -63,6 +86,7 @@ public class Switch extends SceneElement {
         switchedChild.clear();
         switchedChild.addElement(children.elementAt(i));
         this.index = i;
+        invalidateStructure();
     }
 
     /**
@@ -22,6 +22,9 @@
  */
 package com.neocoders.nectar3d.scene;
 
+import com.neocoders.nectar3d.common.Bounds3;
+import com.neocoders.nectar3d.common.Matrix;
+
 /**
  * An ordered group of transforms. The following individual transformations may be added:<br>
  * <ul> <li>translation on x,y and z axis,</li> <li>rotation about x axis,</li> <li>rotation about y axis,</li> <li>rotation about z axis and</li> <li>scale on x, y and z axis.</li> </ul>
@@ -30,6 +33,11 @@ package com.neocoders.nectar3d.scene;
  * x-axis translation offset, or the y-axis factor for scale, independantly of other attributes.<br> <br>
  * It is possible to set or get attributes regardless of whether
  * corresponding transformations have been added to the TransformGroup or not.<br>
+ * <br>
+ * The matrix composed from the transforms is cached, as is the world matrix composed from it and the matrices
+ * of enclosing transform groups; each is only recomposed after something it depends on has changed. They are
+ * got under the group's monitor, since traversals holding the shared read lock may get them at once, and a
+ * matrix got is not recomposed again until the scene graph is next written.
  */
 public class TransformGroup extends SceneElement implements AttributeGroup {
     /** Identifies attribute for x-axis rotation */
@@ -134,6 +142,7 @@ public class TransformGroup extends SceneElement implements AttributeGroup {
         for (int i = 0; i < MAX_TRANSFORMS; i++) {
             xformAdded[i] = false;
         }
+        invalidate();
     }
 
     /**
@@ -150,6 +159,7 @@ public class TransformGroup extends SceneElement implements AttributeGroup {
             throw new SceneException("too many transforms");
         }
         xforms[nxforms++] = id;
+        invalidate();
     }
 
     /** Determines if the given transform is in the group.
@@ -169,6 +179,7 @@ public class TransformGroup extends SceneElement implements AttributeGroup {
      */
     public void setAttribute(int id, double val) {
         attrs[id] = val;
+        invalidate();
     }
 
     /**
@@ -181,6 +192,86 @@ public class TransformGroup extends SceneElement implements AttributeGroup {
         return attrs[id];
     }
 
+    /**
+     * Computes the bounds of the children, which are in the space of this group, and transforms them by the
+     * matrix of this group into the space the group is placed in
+     * @param bounds empty bounds to grow
+     */
+    protected void computeBounds(Bounds3 bounds) {
+        if (childBounds == null) {
+            childBounds = new Bounds3();
+        }
+        childBounds.setEmpty();
+        super.computeBounds(childBounds);
+        bounds.include(childBounds, getMatrix());
+    }
+
+    /**
+     * Gets the matrix composed from the transforms in the group, in order of addition. The matrix is
+     * recomposed only when transforms have been added or cleared or attributes set since it was last got.
+     * @return the matrix, which must not be modified
+     */
+    public synchronized Matrix getMatrix() {
+        if (matrix == null) {
+            matrix = new Matrix();
+            matrixStamp = getModificationStamp() - 1;
+        }
+        if (matrixStamp != getModificationStamp()) {
+            matrix.identity();
+            for (int i = 0; i < nxforms; i++) {
+                switch (xforms[i]) {
+                    case ROTX:
+                        matrix.rotateX(attrs[ROTX_VAL]);
+                        break;
+                    case ROTY:
+                        matrix.rotateY(attrs[ROTY_VAL]);
+                        break;
+                    case ROTZ:
+                        matrix.rotateZ(attrs[ROTZ_VAL]);
+                        break;
+                    case TRA:
+                        matrix.translate(attrs[TRAX_VAL], attrs[TRAY_VAL], attrs[TRAZ_VAL]);
+                        break;
+                    case SCA:
+                        matrix.scale(attrs[SCAX_VAL], attrs[SCAY_VAL], attrs[SCAZ_VAL]);
+                        break;
+                }
+            }
+            matrixStamp = getModificationStamp();
+        }
+        return matrix;
+    }
+
+    /**
+     * Gets the world matrix of this group, which is the matrix of this group composed with the world matrix of
+     * the nearest enclosing transform group. The world matrix is cached with the given context stamp, and is
+     * only recomposed when got with a different one.
+     * @param parentWorld world matrix of the nearest enclosing transform group
+     * @param contextStamp the latest modification stamp of this group and all it's ancestors
+     * @return the world matrix, which must not be modified
+     */
+    public synchronized Matrix getWorldMatrix(Matrix parentWorld, long contextStamp) {
+        if (worldMatrix == null) {
+            worldMatrix = new Matrix();
+        } else if (worldStamp == contextStamp) {
+            return worldMatrix;
+        }
+        worldMatrix.multiply(getMatrix(), parentWorld);
+        worldStamp = contextStamp;
+        return worldMatrix;
+    }
+
+    /** Gives a snapshot copy it's own transforms and attributes, and it's own matrices once they are needed */
+    protected void initSnapshot() {
+        super.initSnapshot();
+        xforms = xforms.clone();
+        xformAdded = xformAdded.clone();
+        attrs = attrs.clone();
+        matrix = null;
+        worldMatrix = null;
+        childBounds = null;
+    }
+
     /**
      * Accept scene graph visitor before it visits sub-elements
      * @param visitor the scene graph visitor
@@ -201,4 +292,9 @@ public class TransformGroup extends SceneElement implements AttributeGroup {
     private int[] xforms; // Transforms in order of addition
     private boolean[] xformAdded; // flag specifies if transform added
     private double[] attrs; // Attribute for each transform
+    private Matrix matrix; // Composed from transforms
+    private long matrixStamp; // Modification stamp matrix was composed for
+    private Matrix worldMatrix; // Matrix composed with enclosing world matrix
+    private long worldStamp; // Context stamp world matrix was composed for
+    private Bounds3 childBounds; // Bounds of children, before transformation
 };
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+import junit.framework.TestCase;
+
+import com.neocoders.nectar3d.common.Point3;
+import com.neocoders.nectar3d.common.Vector3;
+import com.neocoders.nectar3d.common.Volume3;
+import com.neocoders.nectar3d.common.Window2;
+import com.neocoders.nectar3d.scene.Appearance;
+import com.neocoders.nectar3d.scene.Box;
+import com.neocoders.nectar3d.scene.Layer;
+import com.neocoders.nectar3d.scene.Name;
+import com.neocoders.nectar3d.scene.SceneElement;
+import com.neocoders.nectar3d.scene.SceneException;
+import com.neocoders.nectar3d.scene.StringSelector;
+import com.neocoders.nectar3d.scene.TransformGroup;
+
+/**
+ * Checks that what the display list builder retains between frames is drawn
+ * again only while it would be drawn the same, by comparing each frame with
+ * one rendered from scratch
+ */
+public class DisplayListBuilderTest extends TestCase {
+	/**
+	 * An appearance applies to the siblings that follow it, so modifying it
+	 * changes their subtree stamps no more than the current appearance
+	 */
+	public void testModifiedSiblingAppearance() throws SceneException {
+		TransformGroup group = new TransformGroup();
+		group.addTransform(TransformGroup.ROTY);
+		group.setAttribute(TransformGroup.ROTY_VAL, 30.0);
+		Appearance appearance = new Appearance();
+		appearance.setParent(group);
+		Name name = new Name(new StringSelector("box"));
+		name.setParent(group);
+		new Box(50.0, 50.0, 50.0).setParent(name);
+		Layer layer = new Layer(new StringSelector("layer"), true, false,
+				false);
+		group.setParent(layer);
+
+		OffscreenSceneRenderer renderer = new OffscreenSceneRenderer(params());
+		renderer.render(layer);
+		appearance.setFillColor(Color.red);
+		assertSameImage(render(layer), renderer.render(layer));
+	}
+
+	/**
+	 * A whole Layer is retained, so an appearance before it must be checked
+	 * as for any other element
+	 */
+	public void testModifiedAppearanceBeforeLayer() throws SceneException {
+		SceneElement root = new SceneElement();
+		Appearance appearance = new Appearance();
+		appearance.setParent(root);
+		Layer layer = new Layer(new StringSelector("layer"), true, false,
+				false);
+		layer.setParent(root);
+		new Box(50.0, 50.0, 50.0).setParent(layer);
+
+		OffscreenSceneRenderer renderer = new OffscreenSceneRenderer(params());
+		renderer.render(root);
+		appearance.setFillColor(Color.red);
+		assertSameImage(render(root), renderer.render(root));
+	}
+
+	/**
+	 * A layer dropped from a frame is pooled, and may come back from the pool
+	 * for the same Layer element, whose runs from before must not be reused
+	 */
+	public void testLayerReusedFromPool() throws SceneException {
+		TransformGroup group = new TransformGroup();
+		group.addTransform(TransformGroup.ROTY);
+		group.setAttribute(TransformGroup.ROTY_VAL, 30.0);
+		Name name = new Name(new StringSelector("box"));
+		name.setParent(group);
+		new Box(50.0, 50.0, 50.0).setParent(name);
+		Layer layer = new Layer(new StringSelector("layer"), true, false,
+				false);
+		group.setParent(layer);
+
+		OffscreenSceneRenderer renderer = new OffscreenSceneRenderer(params());
+		renderer.render(layer);
+		renderer.render(new SceneElement());
+		BufferedImage image = copy(renderer.render(layer)); // before another
+		assertSameImage(render(layer), image); // renderer takes from the pool
+		assertNotNull(renderer.pick(100, 100));
+	}
+
+	/** Render with a new renderer, which has nothing retained */
+	private BufferedImage render(SceneElement scene) {
+		return copy(new OffscreenSceneRenderer(params()).render(scene));
+	}
+
+	private BufferedImage copy(BufferedImage image) {
+		BufferedImage copy = new BufferedImage(image.getWidth(), image
+				.getHeight(), BufferedImage.TYPE_INT_RGB);
+		copy.getGraphics().drawImage(image, 0, 0, null);
+		return copy;
+	}
+
+	private void assertSameImage(BufferedImage expected, BufferedImage actual) {
+		int differing = 0;
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+					differing++;
+				}
+			}
+		}
+		assertEquals("pixels differing", 0, differing);
+	}
+
+	private SceneRendererParams params() {
+		SceneRendererParams params = new SceneRendererParams();
+		params.setFrustum(new Volume3(-100, -100, -300, 100, 100, -100));
+		params.setWindow(new Window2(0, 0, 200, 200));
+		params.setVPDist(-300);
+		params.setEye(new Point3(0, 0, 40));
+		params.setLook(new Point3(0, 0, 0));
+		params.setUp(new Vector3(0, 1, 0));
+		params.setBackgroundColor(Color.white);
+		return params;
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.renderer;
+
+import java.awt.Color;
+import java.lang.management.ManagementFactory;
+
+import junit.framework.TestCase;
+
+import com.sun.management.ThreadMXBean;
+
+import com.neocoders.nectar3d.common.Point3;
+import com.neocoders.nectar3d.common.Vector3;
+import com.neocoders.nectar3d.common.Volume3;
+import com.neocoders.nectar3d.common.Window2;
+import com.neocoders.nectar3d.scene.Appearance;
+import com.neocoders.nectar3d.scene.Box;
+import com.neocoders.nectar3d.scene.Environment;
+import com.neocoders.nectar3d.scene.Layer;
+import com.neocoders.nectar3d.scene.LightSource;
+import com.neocoders.nectar3d.scene.Name;
+import com.neocoders.nectar3d.scene.SceneException;
+import com.neocoders.nectar3d.scene.StringSelector;
+import com.neocoders.nectar3d.scene.TransformGroup;
+
+/**
+ * Checks that rendering a scene whose geometry is transformed, shaded, fogged
+ * and drawn again on every frame allocates next to nothing once the display
+ * list builder's scratch space and element pools have grown. Skipped where the
+ * JVM cannot count the bytes a thread allocates.
+ */
+public class RenderAllocationTest extends TestCase {
+	public void testSteadyStateAllocation() throws SceneException {
+		if (!(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean)) {
+			return;
+		}
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			return;
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+		long thread = Thread.currentThread().getId();
+
+		TransformGroup root = new TransformGroup();
+		Environment environment = scene(root);
+		OffscreenSceneRenderer renderer = new OffscreenSceneRenderer(params());
+		for (int i = 0; i < WARM_UP_FRAMES; i++) {
+			root.setAttribute(TransformGroup.ROTY_VAL, i);
+			renderer.render(environment);
+		}
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < FRAMES; i++) {
+			root.setAttribute(TransformGroup.ROTY_VAL, WARM_UP_FRAMES + i);
+			renderer.render(environment);
+		}
+		long perFrame = (threads.getThreadAllocatedBytes(thread) - before)
+				/ FRAMES;
+		assertTrue("allocated " + perFrame + " bytes per frame",
+				perFrame < MAX_BYTES_PER_FRAME);
+	}
+
+	/** A cube of boxes under the root transform, each named */
+	private Environment scene(TransformGroup root) throws SceneException {
+		Environment environment = new Environment();
+		environment.addLightSource(new LightSource(new Vector3(1, -1, 0),
+				new Color(100, 100, 100)));
+		Layer layer = new Layer(new StringSelector("cubes"), true, true, true);
+		layer.setParent(environment);
+		root.addTransform(TransformGroup.ROTY);
+		root.setParent(layer);
+		Appearance appearance = new Appearance();
+		appearance.setFillColor(new Color(100, 100, 255));
+		appearance.setParent(root);
+		for (int i = 0; i < SIDE; i++) {
+			for (int j = 0; j < SIDE; j++) {
+				for (int k = 0; k < SIDE; k++) {
+					TransformGroup t = new TransformGroup();
+					t.addTransform(TransformGroup.TRA);
+					t.setAttribute(TransformGroup.TRAX_VAL, (i - SIDE / 2) * 24);
+					t.setAttribute(TransformGroup.TRAY_VAL, (j - SIDE / 2) * 24);
+					t.setAttribute(TransformGroup.TRAZ_VAL, (k - SIDE / 2) * 24);
+					t.setParent(root);
+					Name name = new Name(new StringSelector(i + "," + j + ","
+							+ k));
+					name.setParent(t);
+					new Box(10, 10, 10).setParent(name);
+				}
+			}
+		}
+		return environment;
+	}
+
+	private SceneRendererParams params() {
+		SceneRendererParams params = new SceneRendererParams();
+		params.setFrustum(new Volume3(-130, -130, -300, 130, 130, -100));
+		params.setWindow(new Window2(0, 0, 200, 200));
+		params.setVPDist(-300);
+		params.setEye(new Point3(0, 0, 40));
+		params.setLook(new Point3(0, 0, 0));
+		params.setUp(new Vector3(0, 1, 0));
+		params.setBackgroundColor(new Color(220, 220, 255));
+		return params;
+	}
+
+	private final static int SIDE = 8;
+
+	private final static int WARM_UP_FRAMES = 20;
+
+	private final static int FRAMES = 20;
+
+	/**
+	 * A few small objects per frame; an object per face drawn would be tens
+	 * of kilobytes
+	 */
+	private final static long MAX_BYTES_PER_FRAME = 4 * 1024;
+}
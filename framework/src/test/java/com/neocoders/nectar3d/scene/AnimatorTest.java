@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2007 Lindsay S. Kay, All Rights Reserved
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ *
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.neocoders.nectar3d.scene;
+
+import junit.framework.TestCase;
+
+/** Checks that an Animator only moves and reports on the interpolators of it's own scene graph */
+public class AnimatorTest extends TestCase {
+    public void testScopedToSceneGraph() throws SceneException {
+        SceneElement scene = new SceneElement();
+        TransformGroup group = new TransformGroup();
+        group.addTransform(TransformGroup.ROTY);
+        group.setParent(scene);
+        new Interpolator(TransformGroup.ROTY_VAL, new long[] { 0L, 1000L }, new double[] { 0.0, 90.0 })
+                .setParent(group);
+        Animator animator = new Animator(scene);
+        animator.update(0L);
+        Animator other = new Animator(new SceneElement());
+        other.update(500L);
+        assertEquals(0.0, group.getAttribute(TransformGroup.ROTY_VAL), 0.0);
+        assertFalse(other.isAnimating());
+        assertTrue(animator.isAnimating());
+
+        animator.update(500L);
+        assertEquals(45.0, group.getAttribute(TransformGroup.ROTY_VAL), 0.0);
+        animator.update(1001L);
+        assertEquals(90.0, group.getAttribute(TransformGroup.ROTY_VAL), 0.0);
+        assertFalse(animator.isAnimating());
+    }
+
+    /** Interpolators go with their subtree when it is moved to another scene graph */
+    public void testMovedSubtree() throws SceneException {
+        SceneElement scene = new SceneElement();
+        TransformGroup group = new TransformGroup();
+        group.addTransform(TransformGroup.ROTY);
+        group.setParent(scene);
+        new Interpolator(TransformGroup.ROTY_VAL, new long[] { 0L, 1000L }, new double[] { 0.0, 90.0 })
+                .setParent(group);
+        SceneElement other = new SceneElement();
+        group.setParent(other);
+        assertFalse(new Animator(scene).isAnimating());
+        assertTrue(new Animator(other).isAnimating());
+        new Animator(other).update(2000L); // activated now
+        new Animator(other).update(4000L); // past the last keyframe
+        assertEquals(90.0, group.getAttribute(TransformGroup.ROTY_VAL), 0.0);
+        assertFalse(new Animator(other).isAnimating());
+    }
+}